@@ -0,0 +1,54 @@
+package com.loganrouleau.traintracker.benchmark;
+
+import com.loganrouleau.traintracker.Config;
+import org.opencv.core.Core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+
+/**
+ * Sets up the app's static configuration for a benchmark fork, in place of loading train-tracker.properties, so results
+ * do not depend on the local properties file. Detection runs synchronously on the benchmark thread with no pipeline,
+ * telemetry or adaptive scheduling.
+ */
+public final class BenchmarkConfig {
+    private static boolean applied = false;
+
+    private BenchmarkConfig() {
+    }
+
+    public static synchronized void apply() {
+        if (applied) {
+            return;
+        }
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        Config.FRAMES_PER_SECOND = 10;
+        Config.TIMESTAMP_FORMAT = "yyyy-MM-dd HH-mm-ss-SSS";
+        Config.IMAGE_EXTENSION = "jpg";
+        Config.DISPLAY_WIDTH_PIXELS = 640;
+        Config.DISPLAY_HEIGHT_PIXELS = 360;
+        Config.PIPELINE_ENABLED = false;
+        Config.TELEMETRY_ENABLED = false;
+        Config.CLIP_RECORDING_ENABLED = false;
+        Config.EVENT_STORE_ENABLED = false;
+        Config.ADAPTIVE_SCHEDULING_ENABLED = false;
+        Config.DETECTION_ROI_FIRST = true;
+        Config.DETECTION_DOWNSCALE_FACTOR = 1;
+        Config.DETECTION_PYRAMID_LEVELS = 0;
+        Config.DETECTION_FUSED_KERNEL = false;
+        Config.DETECTION_PARALLEL = false;
+        Config.HEATMAP_ENABLED = false;
+        Config.METRES_PER_PIXEL = 0;
+        Config.RESULT_FLUSH_INTERVAL_MILLIS = 1000;
+        Config.RESULT_FLUSH_LINES = 256;
+        Config.RESULT_MAX_FILE_BYTES = 10485760;
+        try {
+            Config.RESULT_OUTPUT_DIRECTORY = Files.createTempDirectory("train-tracker-results").toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        applied = true;
+    }
+}
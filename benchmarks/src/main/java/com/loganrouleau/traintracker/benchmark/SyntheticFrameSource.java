@@ -0,0 +1,63 @@
+package com.loganrouleau.traintracker.benchmark;
+
+import com.loganrouleau.traintracker.model.FrameSource;
+import org.opencv.core.Mat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A recorded source which plays a set of {@link SyntheticFrames} in a loop, at a nominal 10 frames per second.
+ */
+public class SyntheticFrameSource implements FrameSource {
+    private static final long FRAME_PERIOD_MILLIS = 100;
+
+    private final Mat[] frames;
+    private boolean open = false;
+    private long framesRead = 0;
+
+    public SyntheticFrameSource(Mat[] frames) {
+        this.frames = frames;
+    }
+
+    @Override
+    public boolean open() {
+        open = true;
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        frames[(int) (framesRead++ % frames.length)].copyTo(frame);
+        return true;
+    }
+
+    @Override
+    public long getFrameTimeMillis() {
+        return framesRead * FRAME_PERIOD_MILLIS;
+    }
+
+    @Override
+    public long getFrameTimeNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(getFrameTimeMillis());
+    }
+
+    @Override
+    public boolean isLive() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    @Override
+    public String toString() {
+        return "synthetic frames";
+    }
+}
@@ -0,0 +1,81 @@
+package com.loganrouleau.traintracker.benchmark;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Generates a repeatable sequence of color frames standing in for the camera: a bright rectangle, about the height of
+ * a train on the platform, moving across a background of gaussian noise. Each frame has fresh noise, so the frame
+ * difference has the speckle a real camera produces as well as the moving edge.
+ */
+public final class SyntheticFrames {
+    private static final int RNG_SEED = 42;
+    private static final double NOISE_MEAN = 64;
+    private static final double NOISE_STDDEV = 8;
+    private static final Scalar TRAIN_COLOR = new Scalar(230, 230, 230);
+
+    private SyntheticFrames() {
+    }
+
+    /**
+     * Generate frames of the given size in which the rectangle crosses the whole width over the frame count, then
+     * starts again from the left.
+     */
+    public static Mat[] generate(int width, int height, int frameCount) {
+        Core.setRNGSeed(RNG_SEED);
+        int trainWidth = width / 3;
+        int trainTop = height / 3;
+        int trainBottom = 2 * height / 3;
+        Mat[] frames = new Mat[frameCount];
+        for (int i = 0; i < frameCount; i++) {
+            Mat frame = new Mat(height, width, CvType.CV_8UC3);
+            Core.randn(frame, NOISE_MEAN, NOISE_STDDEV);
+            int trainLeft = (int) ((long) i * (width + trainWidth) / frameCount) - trainWidth;
+            // A negative thickness fills the rectangle
+            Imgproc.rectangle(frame, new Point(trainLeft, trainTop), new Point(trainLeft + trainWidth, trainBottom),
+                    TRAIN_COLOR, -1);
+            frames[i] = frame;
+        }
+        return frames;
+    }
+
+    /**
+     * Convert the frames to grayscale, as the capture device does before handing them to detectors.
+     */
+    public static Mat[] toGray(Mat[] frames) {
+        Mat[] grayFrames = new Mat[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            grayFrames[i] = new Mat();
+            Imgproc.cvtColor(frames[i], grayFrames[i], Imgproc.COLOR_BGR2GRAY);
+        }
+        return grayFrames;
+    }
+
+    /**
+     * A region centered in the frame covering the given fraction of its width and height.
+     */
+    public static Rect centeredRegion(int width, int height, double fraction) {
+        int roiWidth = Math.max(1, (int) (width * fraction));
+        int roiHeight = Math.max(1, (int) (height * fraction));
+        return new Rect((width - roiWidth) / 2, (height - roiHeight) / 2, roiWidth, roiHeight);
+    }
+
+    /**
+     * Parse a resolution parameter such as "1280x720".
+     */
+    public static int[] parseResolution(String resolution) {
+        String[] widthAndHeight = resolution.split("x");
+        return new int[]{Integer.parseInt(widthAndHeight[0]), Integer.parseInt(widthAndHeight[1])};
+    }
+
+    public static void release(Mat[] frames) {
+        for (Mat frame : frames) {
+            frame.release();
+        }
+    }
+}
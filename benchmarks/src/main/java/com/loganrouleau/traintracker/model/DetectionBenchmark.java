@@ -0,0 +1,113 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import com.loganrouleau.traintracker.benchmark.BenchmarkConfig;
+import com.loganrouleau.traintracker.benchmark.SyntheticFrameSource;
+import com.loganrouleau.traintracker.benchmark.SyntheticFrames;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-frame cost of detection. {@link #processFrame()} is everything a {@link MotionDetector} does with a captured
+ * frame when it has no display, from cropping its region to updating the detection state.
+ * {@link #absdiffThresholdMoments()} is only the diff, threshold and moments of an already cropped grayscale region.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DetectionBenchmark {
+    private static final int FRAME_COUNT = 32;
+    private static final double THRESHOLD = 20;
+    private static final double DETECTION_TOLERANCE = 20000;
+
+    @Param({"640x360", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"0.25", "1.0"})
+    public double roiFraction;
+
+    @Param({"0", "1"})
+    public int pyramidLevels;
+
+    private Mat[] frames;
+    private Mat[] roiFrames;
+    private final Mat diffFrame = new Mat();
+    private MotionDetector detector;
+    private CaptureDevice device;
+    private int frameIndex = 0;
+    private long frameSequence = 0;
+    private long frameTimeMillis = 0;
+
+    @Setup
+    public void setUp() {
+        BenchmarkConfig.apply();
+        Config.DETECTION_PYRAMID_LEVELS = pyramidLevels;
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        frames = SyntheticFrames.generate(size[0], size[1], FRAME_COUNT);
+        Rect captureBox = SyntheticFrames.centeredRegion(size[0], size[1], roiFraction);
+
+        Mat[] grayFrames = SyntheticFrames.toGray(frames);
+        roiFrames = new Mat[grayFrames.length];
+        for (int i = 0; i < grayFrames.length; i++) {
+            roiFrames[i] = grayFrames[i].submat(captureBox).clone();
+        }
+        SyntheticFrames.release(grayFrames);
+
+        device = CaptureDevice.forReplay(new SyntheticFrameSource(frames));
+        detector = new MotionDetector();
+        detector.setLocation("BENCHMARK");
+        detector.setCaptureDevice(device);
+        detector.setPersistFrames(false);
+        detector.setBoundingBox(captureBox.x, captureBox.y, captureBox.x + captureBox.width,
+                captureBox.y + captureBox.height);
+        detector.setThreshold(THRESHOLD);
+        detector.setDetectionTolerance(DETECTION_TOLERANCE);
+        detector.capture();
+    }
+
+    @TearDown
+    public void tearDown() {
+        detector.stopAcquisition(false);
+        device.close();
+        SyntheticFrames.release(frames);
+        SyntheticFrames.release(roiFrames);
+        diffFrame.release();
+    }
+
+    @Benchmark
+    public void processFrame() {
+        frameIndex = (frameIndex + 1) % frames.length;
+        frameTimeMillis += 100;
+        detector.processFrame(frames[frameIndex], ++frameSequence, TimeUnit.MILLISECONDS.toNanos(frameTimeMillis),
+                frameTimeMillis);
+    }
+
+    @Benchmark
+    public Moments absdiffThresholdMoments() {
+        Mat prevFrame = roiFrames[frameIndex];
+        frameIndex = (frameIndex + 1) % roiFrames.length;
+        Core.absdiff(roiFrames[frameIndex], prevFrame, diffFrame);
+        Imgproc.threshold(diffFrame, diffFrame, THRESHOLD, 255, Imgproc.THRESH_BINARY);
+        return Imgproc.moments(diffFrame);
+    }
+}
@@ -0,0 +1,98 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.FrameRenderer;
+import com.loganrouleau.traintracker.benchmark.BenchmarkConfig;
+import com.loganrouleau.traintracker.benchmark.SyntheticFrameSource;
+import com.loganrouleau.traintracker.benchmark.SyntheticFrames;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Producing a display frame from a thresholded diff: inverting it, converting it to BGRA, scaling it to the display
+ * size and drawing the centroid in {@link MotionDetector#renderFrame}, then copying it into the
+ * {@link FrameRenderer}'s pixel buffer. Applying the pixels to the image on the JavaFX thread is not included.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DisplayBenchmark {
+    private static final int FRAME_COUNT = 32;
+    private static final double THRESHOLD = 20;
+
+    @Param({"640x360", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"0.25", "1.0"})
+    public double roiFraction;
+
+    private Mat[] frames;
+    private Mat[] diffFrames;
+    private FrameRenderer frameRenderer;
+    private MotionDetector detector;
+    private CaptureDevice device;
+    private int frameIndex = 0;
+
+    @Setup
+    public void setUp() {
+        BenchmarkConfig.apply();
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        frames = SyntheticFrames.generate(size[0], size[1], FRAME_COUNT);
+        Rect captureBox = SyntheticFrames.centeredRegion(size[0], size[1], roiFraction);
+
+        Mat[] grayFrames = SyntheticFrames.toGray(frames);
+        diffFrames = new Mat[grayFrames.length];
+        for (int i = 0; i < grayFrames.length; i++) {
+            Mat prevFrame = grayFrames[(i + grayFrames.length - 1) % grayFrames.length];
+            diffFrames[i] = new Mat();
+            Core.absdiff(grayFrames[i].submat(captureBox), prevFrame.submat(captureBox), diffFrames[i]);
+            Imgproc.threshold(diffFrames[i], diffFrames[i], THRESHOLD, 255, Imgproc.THRESH_BINARY);
+        }
+        SyntheticFrames.release(grayFrames);
+
+        frameRenderer = new FrameRenderer();
+        device = CaptureDevice.forReplay(new SyntheticFrameSource(frames));
+        detector = new MotionDetector();
+        detector.setLocation("BENCHMARK");
+        detector.setCaptureDevice(device);
+        detector.setFrameRenderer(frameRenderer);
+        detector.setBoundingBox(captureBox.x, captureBox.y, captureBox.x + captureBox.width,
+                captureBox.y + captureBox.height);
+        detector.capture();
+    }
+
+    @TearDown
+    public void tearDown() {
+        detector.stopAcquisition(false);
+        device.close();
+        frameRenderer.release();
+        SyntheticFrames.release(frames);
+        SyntheticFrames.release(diffFrames);
+    }
+
+    @Benchmark
+    public void renderFrame() {
+        frameIndex = (frameIndex + 1) % diffFrames.length;
+        Mat diffFrame = diffFrames[frameIndex];
+        // The render inverts the diff in place, which leaves the amount of work the same on every pass
+        detector.renderFrame(diffFrame, diffFrame.cols() / 2.0, diffFrame.rows() / 2.0, true, 0, 0, 0);
+    }
+}
@@ -0,0 +1,142 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.benchmark.BenchmarkConfig;
+import com.loganrouleau.traintracker.benchmark.SyntheticFrames;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The diff, threshold and moments of a cropped grayscale region through OpenCV, against the {@link FusedMotionKernel},
+ * with and without writing out the thresholded diff for display, and split into stripes across cores. Setup checks
+ * that every path gives the same moments over the whole sequence, so a benchmark of a kernel giving wrong answers fails
+ * rather than reporting a result.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FusedKernelBenchmark {
+    private static final int FRAME_COUNT = 32;
+    private static final double THRESHOLD = 20;
+    private static final double RELATIVE_TOLERANCE = 1e-9;
+    private static final int MIN_STRIPE_PIXELS = 65536;
+
+    @Param({"640x360", "1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"0.25", "0.5", "1.0"})
+    public double roiFraction;
+
+    private Mat[] roiFrames;
+    private final Mat diffFrame = new Mat();
+    private final FusedMotionKernel kernel = new FusedMotionKernel();
+    private final FusedMotionKernel parallelKernel = new FusedMotionKernel(MIN_STRIPE_PIXELS);
+    private int frameIndex = 0;
+
+    @Setup
+    public void setUp() {
+        BenchmarkConfig.apply();
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        Mat[] frames = SyntheticFrames.generate(size[0], size[1], FRAME_COUNT);
+        Rect captureBox = SyntheticFrames.centeredRegion(size[0], size[1], roiFraction);
+        Mat[] grayFrames = SyntheticFrames.toGray(frames);
+        roiFrames = new Mat[grayFrames.length];
+        for (int i = 0; i < grayFrames.length; i++) {
+            roiFrames[i] = grayFrames[i].submat(captureBox).clone();
+        }
+        SyntheticFrames.release(grayFrames);
+        SyntheticFrames.release(frames);
+        verify(new FusedMotionKernel());
+        verify(new FusedMotionKernel(MIN_STRIPE_PIXELS));
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticFrames.release(roiFrames);
+        diffFrame.release();
+    }
+
+    @Benchmark
+    public double openCv() {
+        Mat prevFrame = roiFrames[frameIndex];
+        frameIndex = (frameIndex + 1) % roiFrames.length;
+        Core.absdiff(roiFrames[frameIndex], prevFrame, diffFrame);
+        Imgproc.threshold(diffFrame, diffFrame, THRESHOLD, 255, Imgproc.THRESH_BINARY);
+        return Imgproc.moments(diffFrame).m00;
+    }
+
+    @Benchmark
+    public double fused() {
+        frameIndex = (frameIndex + 1) % roiFrames.length;
+        kernel.update(roiFrames[frameIndex], THRESHOLD, false);
+        return kernel.getM00();
+    }
+
+    @Benchmark
+    public double fusedWithDisplay() {
+        frameIndex = (frameIndex + 1) % roiFrames.length;
+        kernel.update(roiFrames[frameIndex], THRESHOLD, true);
+        kernel.writeMask(diffFrame);
+        return kernel.getM00();
+    }
+
+    @Benchmark
+    public double parallel() {
+        frameIndex = (frameIndex + 1) % roiFrames.length;
+        parallelKernel.update(roiFrames[frameIndex], THRESHOLD, false);
+        return parallelKernel.getM00();
+    }
+
+    /**
+     * Run OpenCV and the kernel over every consecutive pair of frames, and fail if their moments or thresholded diffs
+     * differ.
+     */
+    private void verify(FusedMotionKernel checkKernel) {
+        Mat fusedDiffFrame = new Mat();
+        Mat mismatch = new Mat();
+        try {
+            checkKernel.update(roiFrames[0], THRESHOLD, true);
+            for (int i = 1; i < roiFrames.length; i++) {
+                Core.absdiff(roiFrames[i], roiFrames[i - 1], diffFrame);
+                Imgproc.threshold(diffFrame, diffFrame, THRESHOLD, 255, Imgproc.THRESH_BINARY);
+                Moments moments = Imgproc.moments(diffFrame);
+                checkKernel.update(roiFrames[i], THRESHOLD, true);
+                checkKernel.writeMask(fusedDiffFrame);
+                Core.compare(diffFrame, fusedDiffFrame, mismatch, Core.CMP_NE);
+                if (!agrees(moments.m00, checkKernel.getM00()) || !agrees(moments.m10, checkKernel.getM10())
+                        || !agrees(moments.m01, checkKernel.getM01()) || Core.countNonZero(mismatch) != 0) {
+                    throw new IllegalStateException(String.format("Fused kernel disagrees with OpenCV on frame %d: "
+                                    + "m00 %.1f/%.1f, m10 %.1f/%.1f, m01 %.1f/%.1f", i, moments.m00,
+                            checkKernel.getM00(), moments.m10, checkKernel.getM10(), moments.m01,
+                            checkKernel.getM01()));
+                }
+            }
+        } finally {
+            fusedDiffFrame.release();
+            mismatch.release();
+        }
+    }
+
+    private static boolean agrees(double expected, double actual) {
+        return Math.abs(expected - actual) <= RELATIVE_TOLERANCE * Math.max(1, Math.abs(expected));
+    }
+}
@@ -0,0 +1,48 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.benchmark.BenchmarkConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of recording results from a detector thread, with the writer thread committing them to a temporary
+ * results directory in the background.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResultWriterBenchmark {
+    private ResultWriter resultWriter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // The configuration must be in place before the writer's thread starts
+        BenchmarkConfig.apply();
+        resultWriter = ResultWriter.getInstance();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        resultWriter.close();
+    }
+
+    @Benchmark
+    public void writeResultLine() {
+        resultWriter.writeResultLine("2018-06-01 08-15-30-250", "BENCHMARK", 20, 20000, "East", 412.5, 1830.2, 9400);
+    }
+}
@@ -0,0 +1,82 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.benchmark.BenchmarkConfig;
+import com.loganrouleau.traintracker.benchmark.SyntheticFrames;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting a detector's grayscale region out of a captured color frame, converting the whole frame and then cropping it
+ * as the capture device used to, against cropping first and converting only the region.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoiBenchmark {
+    private static final int FRAME_COUNT = 32;
+
+    @Param({"640x360", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"0.25", "0.5", "1.0"})
+    public double roiFraction;
+
+    private Mat[] frames;
+    private Rect captureBox;
+    private final FrameBuffers buffers = new FrameBuffers();
+    private final Mat grayFrame = new Mat();
+    private final Mat roiFrame = new Mat();
+    private int frameIndex = 0;
+
+    @Setup
+    public void setUp() {
+        BenchmarkConfig.apply();
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        frames = SyntheticFrames.generate(size[0], size[1], FRAME_COUNT);
+        captureBox = SyntheticFrames.centeredRegion(size[0], size[1], roiFraction);
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticFrames.release(frames);
+        buffers.release();
+        grayFrame.release();
+        roiFrame.release();
+    }
+
+    @Benchmark
+    public Mat convertThenCrop() {
+        Imgproc.cvtColor(nextFrame(), grayFrame, Imgproc.COLOR_BGR2GRAY);
+        buffers.copyRoi(grayFrame, captureBox, roiFrame);
+        return roiFrame;
+    }
+
+    @Benchmark
+    public Mat cropThenConvert() {
+        buffers.copyRoi(nextFrame(), captureBox, roiFrame);
+        return roiFrame;
+    }
+
+    private Mat nextFrame() {
+        frameIndex = (frameIndex + 1) % frames.length;
+        return frames[frameIndex];
+    }
+}
@@ -0,0 +1,132 @@
+package com.loganrouleau.traintracker;
+
+import com.loganrouleau.traintracker.model.CalibrationSweep;
+import com.loganrouleau.traintracker.model.FrameSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opencv.core.Core;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Finds the best threshold and detection tolerance for a region by running a {@link CalibrationSweep} over a recording
+ * whose train events are known. The precision and recall of every setting is written to standard out as csv.
+ * <p>
+ * Usage: {@code CalibrationMain [options] <labels csv> <video file or image directory>} where the labels csv is in
+ * the result file format, with options
+ * <ul>
+ * <li>{@code --region x1,y1,x2,y2} the region to detect in. Defaults to the whole display frame.</li>
+ * <li>{@code --thresholds FROM:TO:STEP} the grayscale intensity thresholds to evaluate. Defaults to 5:60:5.</li>
+ * <li>{@code --tolerances FROM:TO:STEP} the motion detection tolerances to evaluate. Defaults to
+ * 5000:100000:5000.</li>
+ * <li>{@code --window SECONDS} how far a detection may be from a label and still match it. Defaults to 10.</li>
+ * <li>{@code --start TIMESTAMP} when the video started recording, in the configured timestamp format. Defaults to the
+ * video's last modified time.</li>
+ * </ul>
+ */
+public final class CalibrationMain {
+    private static final Logger LOG = LogManager.getLogger(CalibrationMain.class);
+
+    private CalibrationMain() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        Config.loadProperties();
+
+        Rect captureBox = new Rect(0, 0, Config.DISPLAY_WIDTH_PIXELS, Config.DISPLAY_HEIGHT_PIXELS);
+        String thresholdRange = "5:60:5";
+        String toleranceRange = "5000:100000:5000";
+        long windowMillis = 10000;
+        Long startTimeMillis = null;
+        String labelFile = null;
+        String recording = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--region":
+                    String[] box = args[++i].split(",");
+                    captureBox = new Rect(new Point(Integer.parseInt(box[0]), Integer.parseInt(box[1])),
+                            new Point(Integer.parseInt(box[2]), Integer.parseInt(box[3])));
+                    break;
+                case "--thresholds":
+                    thresholdRange = args[++i];
+                    break;
+                case "--tolerances":
+                    toleranceRange = args[++i];
+                    break;
+                case "--window":
+                    windowMillis = Math.round(Double.parseDouble(args[++i]) * 1000);
+                    break;
+                case "--start":
+                    startTimeMillis = LocalDateTime.parse(args[++i],
+                            DateTimeFormatter.ofPattern(Config.TIMESTAMP_FORMAT))
+                            .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                    break;
+                default:
+                    if (labelFile == null) {
+                        labelFile = args[i];
+                    } else {
+                        recording = args[i];
+                    }
+            }
+        }
+        if (recording == null) {
+            System.err.println("Usage: CalibrationMain [--region x1,y1,x2,y2] [--thresholds FROM:TO:STEP] "
+                    + "[--tolerances FROM:TO:STEP] [--window SECONDS] [--start TIMESTAMP] <labels csv> "
+                    + "<video file or image directory>");
+            System.exit(1);
+        }
+
+        double[] thresholdValues = parseRange(thresholdRange);
+        int[] thresholds = new int[thresholdValues.length];
+        for (int i = 0; i < thresholds.length; i++) {
+            thresholds[i] = (int) thresholdValues[i];
+        }
+        double[] tolerances = parseRange(toleranceRange);
+        List<CalibrationSweep.Event> labels = CalibrationSweep.readLabels(Paths.get(labelFile));
+
+        CalibrationSweep sweep = new CalibrationSweep(captureBox, thresholds, tolerances);
+        FrameSource source = HeadlessMain.createSource(Paths.get(recording), startTimeMillis);
+        long startNanos = System.nanoTime();
+        long frames = sweep.run(source);
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        LOG.info(String.format("Swept %d settings over %d frames of %s in %.1f s (%.0f fps)",
+                thresholds.length * tolerances.length, frames, source, seconds, frames / seconds));
+
+        CalibrationSweep.SweepResult best = null;
+        System.out.println("Threshold,Tolerance,Detected,True Positives,Precision,Recall");
+        for (CalibrationSweep.SweepResult result : sweep.evaluate(labels, windowMillis)) {
+            System.out.println(String.format("%d,%.0f,%d,%d,%.3f,%.3f", result.getThreshold(), result.getTolerance(),
+                    result.getDetectedEvents(), result.getTruePositives(), result.getPrecision(),
+                    result.getRecall()));
+            if (best == null || result.getF1() > best.getF1()) {
+                best = result;
+            }
+        }
+        if (best != null) {
+            LOG.info(String.format("Best setting of %d labelled events: threshold %d, tolerance %.0f, precision %.3f, "
+                            + "recall %.3f", labels.size(), best.getThreshold(), best.getTolerance(),
+                    best.getPrecision(), best.getRecall()));
+        }
+    }
+
+    private static double[] parseRange(String range) {
+        String[] fromToStep = range.split(":");
+        double from = Double.parseDouble(fromToStep[0]);
+        double to = Double.parseDouble(fromToStep[1]);
+        double step = Double.parseDouble(fromToStep[2]);
+        int count = (int) Math.floor((to - from) / step) + 1;
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = from + i * step;
+        }
+        return values;
+    }
+}
@@ -1,9 +1,12 @@
 package com.loganrouleau.traintracker;
 
+import com.loganrouleau.traintracker.model.OverflowPolicy;
+import com.loganrouleau.traintracker.model.Region;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.FileInputStream;
+import java.util.List;
 import java.util.Properties;
 
 public class Config {
@@ -19,6 +22,56 @@ public class Config {
     public static boolean AUDIO_ENABLED;
     public static int DISPLAY_WIDTH_PIXELS;
     public static int DISPLAY_HEIGHT_PIXELS;
+    public static boolean PIPELINE_ENABLED;
+    public static int PIPELINE_DETECT_QUEUE_SIZE;
+    public static OverflowPolicy PIPELINE_DETECT_OVERFLOW_POLICY;
+    public static int PIPELINE_RENDER_QUEUE_SIZE;
+    public static OverflowPolicy PIPELINE_RENDER_OVERFLOW_POLICY;
+    public static String RESULT_OUTPUT_DIRECTORY;
+    public static long RESULT_FLUSH_INTERVAL_MILLIS;
+    public static int RESULT_FLUSH_LINES;
+    public static long RESULT_MAX_FILE_BYTES;
+    public static boolean TELEMETRY_ENABLED;
+    public static String TELEMETRY_DIRECTORY;
+    public static long TELEMETRY_RECORDS;
+    public static int IMAGE_JPEG_QUALITY;
+    public static int SNAPSHOT_ENCODER_THREADS;
+    public static int SNAPSHOT_QUEUE_SIZE;
+    public static int SNAPSHOT_BATCH_SIZE;
+    public static boolean ADAPTIVE_SCHEDULING_ENABLED;
+    public static int ADAPTIVE_IDLE_FRAMES_PER_SECOND;
+    public static double ADAPTIVE_PRETRIGGER_FRACTION;
+    public static long ADAPTIVE_BURST_HOLD_MILLIS;
+    public static boolean DETECTION_ROI_FIRST;
+    public static double DETECTION_DOWNSCALE_FACTOR;
+    public static int DETECTION_PYRAMID_LEVELS;
+    public static boolean DETECTION_FUSED_KERNEL;
+    public static boolean DETECTION_PARALLEL;
+    public static int DETECTION_PARALLEL_MIN_STRIPE_PIXELS;
+    public static double METRES_PER_PIXEL;
+    public static boolean METRICS_OVERLAY_ENABLED;
+    public static List<Region> REGIONS;
+    public static int CAPTURE_CORE_BUDGET;
+    public static long CORRELATION_WINDOW_MILLIS;
+    public static boolean CLIP_RECORDING_ENABLED;
+    public static long CLIP_PRE_ROLL_MILLIS;
+    public static long CLIP_POST_ROLL_MILLIS;
+    public static int CLIP_QUEUE_FRAMES;
+    public static String CLIP_FOURCC;
+    public static String CLIP_EXTENSION;
+    public static boolean LIVE_VIEW_ENABLED;
+    public static String LIVE_VIEW_HOST;
+    public static int LIVE_VIEW_PORT;
+    public static int LIVE_VIEW_MAX_CLIENTS;
+    public static int EVENT_MAILBOX_SIZE;
+    public static long EVENT_SAMPLE_INTERVAL_MILLIS;
+    public static boolean EVENT_STORE_ENABLED;
+    public static String EVENT_STORE_FILE;
+    public static boolean HEATMAP_ENABLED;
+    public static double HEATMAP_ALPHA;
+    public static long HEATMAP_MIN_FRAMES;
+    public static double HEATMAP_COVERAGE_FRACTION;
+    public static int HEATMAP_MARGIN_PIXELS;
 
     public static void loadProperties() {
         Properties properties = new Properties();
@@ -40,5 +93,63 @@ public class Config {
         AUDIO_ENABLED = Boolean.parseBoolean(properties.getProperty("audio.enabled"));
         DISPLAY_WIDTH_PIXELS = Integer.parseInt(properties.getProperty("display.width.pixels"));
         DISPLAY_HEIGHT_PIXELS = Integer.parseInt(properties.getProperty("display.height.pixels"));
+        PIPELINE_ENABLED = Boolean.parseBoolean(properties.getProperty("pipeline.enabled"));
+        PIPELINE_DETECT_QUEUE_SIZE = Integer.parseInt(properties.getProperty("pipeline.detect.queue.size"));
+        PIPELINE_DETECT_OVERFLOW_POLICY = OverflowPolicy.valueOf(
+                properties.getProperty("pipeline.detect.overflow.policy"));
+        PIPELINE_RENDER_QUEUE_SIZE = Integer.parseInt(properties.getProperty("pipeline.render.queue.size"));
+        PIPELINE_RENDER_OVERFLOW_POLICY = OverflowPolicy.valueOf(
+                properties.getProperty("pipeline.render.overflow.policy"));
+        RESULT_OUTPUT_DIRECTORY = properties.getProperty("result.output.directory");
+        RESULT_FLUSH_INTERVAL_MILLIS = Long.parseLong(properties.getProperty("result.flush.interval.millis"));
+        RESULT_FLUSH_LINES = Integer.parseInt(properties.getProperty("result.flush.lines"));
+        RESULT_MAX_FILE_BYTES = Long.parseLong(properties.getProperty("result.max.file.bytes"));
+        TELEMETRY_ENABLED = Boolean.parseBoolean(properties.getProperty("telemetry.enabled"));
+        TELEMETRY_DIRECTORY = properties.getProperty("telemetry.directory");
+        TELEMETRY_RECORDS = Long.parseLong(properties.getProperty("telemetry.records"));
+        IMAGE_JPEG_QUALITY = Integer.parseInt(properties.getProperty("image.jpeg.quality"));
+        SNAPSHOT_ENCODER_THREADS = Integer.parseInt(properties.getProperty("snapshot.encoder.threads"));
+        SNAPSHOT_QUEUE_SIZE = Integer.parseInt(properties.getProperty("snapshot.queue.size"));
+        SNAPSHOT_BATCH_SIZE = Integer.parseInt(properties.getProperty("snapshot.batch.size"));
+        ADAPTIVE_SCHEDULING_ENABLED = Boolean.parseBoolean(properties.getProperty("adaptive.scheduling.enabled"));
+        ADAPTIVE_IDLE_FRAMES_PER_SECOND = Integer.parseInt(properties.getProperty("adaptive.idle.frames.per.second"));
+        ADAPTIVE_PRETRIGGER_FRACTION = Double.parseDouble(properties.getProperty("adaptive.pretrigger.fraction"));
+        ADAPTIVE_BURST_HOLD_MILLIS = Long.parseLong(properties.getProperty("adaptive.burst.hold.millis"));
+        DETECTION_ROI_FIRST = Boolean.parseBoolean(properties.getProperty("detection.roi.first"));
+        DETECTION_DOWNSCALE_FACTOR = Double.parseDouble(properties.getProperty("detection.downscale.factor"));
+        DETECTION_PYRAMID_LEVELS = Integer.parseInt(properties.getProperty("detection.pyramid.levels"));
+        DETECTION_FUSED_KERNEL = Boolean.parseBoolean(properties.getProperty("detection.fused.kernel"));
+        DETECTION_PARALLEL = Boolean.parseBoolean(properties.getProperty("detection.parallel"));
+        DETECTION_PARALLEL_MIN_STRIPE_PIXELS = Integer.parseInt(
+                properties.getProperty("detection.parallel.min.stripe.pixels"));
+        if (DETECTION_PARALLEL && !DETECTION_FUSED_KERNEL) {
+            // Parallel detection splits the fused kernel into stripes, so it cannot run without it
+            LOG.warn("detection.parallel=true implies detection.fused.kernel=true");
+            DETECTION_FUSED_KERNEL = true;
+        }
+        METRES_PER_PIXEL = Double.parseDouble(properties.getProperty("calibration.metres.per.pixel"));
+        METRICS_OVERLAY_ENABLED = Boolean.parseBoolean(properties.getProperty("metrics.overlay.enabled"));
+        REGIONS = Region.parseList(properties.getProperty("regions"));
+        CAPTURE_CORE_BUDGET = Integer.parseInt(properties.getProperty("capture.core.budget"));
+        CORRELATION_WINDOW_MILLIS = Long.parseLong(properties.getProperty("correlation.window.millis"));
+        CLIP_RECORDING_ENABLED = Boolean.parseBoolean(properties.getProperty("clip.recording.enabled"));
+        CLIP_PRE_ROLL_MILLIS = Long.parseLong(properties.getProperty("clip.pre.roll.millis"));
+        CLIP_POST_ROLL_MILLIS = Long.parseLong(properties.getProperty("clip.post.roll.millis"));
+        CLIP_QUEUE_FRAMES = Integer.parseInt(properties.getProperty("clip.queue.frames"));
+        CLIP_FOURCC = properties.getProperty("clip.fourcc");
+        CLIP_EXTENSION = properties.getProperty("clip.extension");
+        LIVE_VIEW_ENABLED = Boolean.parseBoolean(properties.getProperty("live.view.enabled"));
+        LIVE_VIEW_HOST = properties.getProperty("live.view.host");
+        LIVE_VIEW_PORT = Integer.parseInt(properties.getProperty("live.view.port"));
+        LIVE_VIEW_MAX_CLIENTS = Integer.parseInt(properties.getProperty("live.view.max.clients"));
+        EVENT_MAILBOX_SIZE = Integer.parseInt(properties.getProperty("event.mailbox.size"));
+        EVENT_SAMPLE_INTERVAL_MILLIS = Long.parseLong(properties.getProperty("event.sample.interval.millis"));
+        EVENT_STORE_ENABLED = Boolean.parseBoolean(properties.getProperty("event.store.enabled"));
+        EVENT_STORE_FILE = properties.getProperty("event.store.file");
+        HEATMAP_ENABLED = Boolean.parseBoolean(properties.getProperty("heatmap.enabled"));
+        HEATMAP_ALPHA = Double.parseDouble(properties.getProperty("heatmap.alpha"));
+        HEATMAP_MIN_FRAMES = Long.parseLong(properties.getProperty("heatmap.min.frames"));
+        HEATMAP_COVERAGE_FRACTION = Double.parseDouble(properties.getProperty("heatmap.coverage.fraction"));
+        HEATMAP_MARGIN_PIXELS = Integer.parseInt(properties.getProperty("heatmap.margin.pixels"));
     }
 }
@@ -0,0 +1,73 @@
+package com.loganrouleau.traintracker;
+
+import com.loganrouleau.traintracker.model.EventStore;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Command line tool which queries an {@link EventStore} over a time range.
+ * <p>
+ * Usage: {@code EventStoreTool <event store file> export|hourly [from] [to] [location] [output csv]}. {@code export}
+ * writes the detections as csv in the result file format, with timestamps in the configured format, and
+ * {@code hourly} writes the number of detections in each direction by hour of day. Times are local ISO date-times such
+ * as {@code 2018-05-01T06:00}, and any argument can be {@code -} for no limit. Without an output file the csv is
+ * written to standard out.
+ */
+public final class EventStoreTool {
+    private EventStoreTool() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !(args[1].equals("export") || args[1].equals("hourly"))) {
+            System.err.println("Usage: EventStoreTool <event store file> export|hourly [from] [to] [location] "
+                    + "[output csv]");
+            System.exit(1);
+        }
+        Config.loadProperties();
+        ZoneId zone = ZoneId.systemDefault();
+        long fromMillis = args.length > 2 ? parseTime(args[2], zone, Long.MIN_VALUE) : Long.MIN_VALUE;
+        long toMillis = args.length > 3 ? parseTime(args[3], zone, Long.MAX_VALUE) : Long.MAX_VALUE;
+        String location = args.length > 4 && !args[4].equals("-") ? args[4] : null;
+
+        EventStore store = EventStore.openReadOnly(Paths.get(args[0]));
+        try (Writer out = args.length > 5
+                ? Files.newBufferedWriter(Paths.get(args[5]), StandardCharsets.UTF_8)
+                : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            if (args[1].equals("export")) {
+                store.exportCsv(fromMillis, toMillis, location, DateTimeFormatter.ofPattern(Config.TIMESTAMP_FORMAT),
+                        zone, out);
+            } else {
+                writeHourly(store.countByHourAndDirection(fromMillis, toMillis, location, zone), out);
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    private static void writeHourly(long[][] counts, Writer out) {
+        PrintWriter writer = new PrintWriter(out);
+        writer.println("Hour,East,West,Unknown");
+        for (int hour = 0; hour < counts.length; hour++) {
+            writer.println(hour + "," + counts[hour][EventStore.DIRECTION_EAST] + ","
+                    + counts[hour][EventStore.DIRECTION_WEST] + "," + counts[hour][EventStore.DIRECTION_UNKNOWN]);
+        }
+        writer.flush();
+    }
+
+    private static long parseTime(String value, ZoneId zone, long unbounded) {
+        if (value.equals("-")) {
+            return unbounded;
+        }
+        return LocalDateTime.parse(value).atZone(zone).toInstant().toEpochMilli();
+    }
+}
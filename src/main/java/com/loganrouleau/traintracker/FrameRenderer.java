@@ -0,0 +1,117 @@
+package com.loganrouleau.traintracker;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Renders OpenCV frames into a single reused JavaFX {@link WritableImage}. Frames are written on the capture thread
+ * and applied to the image on the JavaFX Application Thread. Three pixel buffers are rotated between the two threads so
+ * that neither waits on the other, and nothing is allocated per frame unless the frame size changes.
+ */
+public class FrameRenderer {
+    private static final Logger LOG = LogManager.getLogger(FrameRenderer.class);
+    private static final WritablePixelFormat<ByteBuffer> PIXEL_FORMAT = PixelFormat.getByteBgraInstance();
+    private static final int BYTES_PER_PIXEL = 4;
+
+    // Used only if the written frame is not already a continuous BGRA Mat
+    private final Mat bgraFrame = new Mat();
+
+    // Owned by the capture thread
+    private PixelBuffer writeBuffer = new PixelBuffer();
+    // Holds the most recently written frame, swapped in and out by both threads
+    private final AtomicReference<PixelBuffer> readyBuffer = new AtomicReference<>(new PixelBuffer());
+    // Owned by the JavaFX Application Thread
+    private PixelBuffer readBuffer = new PixelBuffer();
+    private WritableImage image;
+
+    /**
+     * Copy a 1, 3 or 4 channel 8-bit frame into the next pixel buffer. Called from the capture thread.
+     */
+    public void write(Mat frame) {
+        if (frame.empty()) {
+            return;
+        }
+
+        Mat source = frame;
+        if (frame.channels() != BYTES_PER_PIXEL || !frame.isContinuous()) {
+            switch (frame.channels()) {
+                case 1:
+                    Imgproc.cvtColor(frame, bgraFrame, Imgproc.COLOR_GRAY2BGRA);
+                    break;
+                case 3:
+                    Imgproc.cvtColor(frame, bgraFrame, Imgproc.COLOR_BGR2BGRA);
+                    break;
+                case 4:
+                    frame.copyTo(bgraFrame);
+                    break;
+                default:
+                    LOG.warn("Cannot render a frame with " + frame.channels() + " channels");
+                    return;
+            }
+            source = bgraFrame;
+        }
+
+        writeBuffer.resize(source.width(), source.height());
+        source.get(0, 0, writeBuffer.pixels);
+        writeBuffer.fresh = true;
+        writeBuffer = readyBuffer.getAndSet(writeBuffer);
+    }
+
+    /**
+     * Apply the most recently written frame to the image, if there is one that has not been rendered yet. Must be
+     * called on the JavaFX Application Thread.
+     *
+     * @return the rendered image, which is the same instance between calls unless the frame size changes
+     */
+    public Image render() {
+        if (!readyBuffer.get().fresh) {
+            return image;
+        }
+        readBuffer.fresh = false;
+        readBuffer = readyBuffer.getAndSet(readBuffer);
+        if (!readBuffer.fresh) {
+            return image;
+        }
+
+        int width = readBuffer.width;
+        int height = readBuffer.height;
+        if (image == null || (int) image.getWidth() != width || (int) image.getHeight() != height) {
+            image = new WritableImage(width, height);
+        }
+        image.getPixelWriter().setPixels(0, 0, width, height, PIXEL_FORMAT, readBuffer.pixels, 0,
+                width * BYTES_PER_PIXEL);
+        readBuffer.fresh = false;
+        return image;
+    }
+
+    /**
+     * Release the native memory held for frame conversion.
+     */
+    public void release() {
+        bgraFrame.release();
+    }
+
+    private static class PixelBuffer {
+        private byte[] pixels = new byte[0];
+        private int width;
+        private int height;
+        private volatile boolean fresh = false;
+
+        private void resize(int width, int height) {
+            if (this.width != width || this.height != height) {
+                this.width = width;
+                this.height = height;
+                pixels = new byte[width * height * BYTES_PER_PIXEL];
+            }
+        }
+    }
+}
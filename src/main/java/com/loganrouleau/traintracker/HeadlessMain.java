@@ -0,0 +1,170 @@
+package com.loganrouleau.traintracker;
+
+import com.loganrouleau.traintracker.model.CaptureDevice;
+import com.loganrouleau.traintracker.model.EventCorrelator;
+import com.loganrouleau.traintracker.model.EventStore;
+import com.loganrouleau.traintracker.model.FrameSource;
+import com.loganrouleau.traintracker.model.ImageDirectoryFrameSource;
+import com.loganrouleau.traintracker.model.MotionDetector;
+import com.loganrouleau.traintracker.model.Region;
+import com.loganrouleau.traintracker.model.ResultWriter;
+import com.loganrouleau.traintracker.model.VideoFileFrameSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opencv.core.Core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the motion detector over recorded video files and image directories without a display, writing detections to
+ * the usual result csv. Each recording is read as fast as the CPU allows rather than at the configured frame rate, and
+ * recordings are processed in parallel, one per core within the configured core budget. Detections are correlated
+ * across the regions, in the order given, from west to east, separately for each recording.
+ * <p>
+ * Usage: {@code HeadlessMain [options] <video file or image directory>...} with options
+ * <ul>
+ * <li>{@code --region NAME:x1,y1,x2,y2} a region to detect in, may be repeated. Defaults to the configured regions,
+ * or the whole display frame if there are none.</li>
+ * <li>{@code --threshold N} the grayscale intensity threshold, 0-255. Defaults to 20.</li>
+ * <li>{@code --tolerance N} the motion detection tolerance. Defaults to 20000.</li>
+ * <li>{@code --start TIMESTAMP} when the videos started recording, in the configured timestamp format. Defaults to
+ * each video's last modified time less its duration, as a recording is last modified when it ends.</li>
+ * </ul>
+ */
+public final class HeadlessMain {
+    private static final Logger LOG = LogManager.getLogger(HeadlessMain.class);
+
+    private HeadlessMain() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LOG.info("Entering headless main");
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        Config.loadProperties();
+        // Replay is synchronous so it runs as fast as possible, and telemetry files are per location so recordings
+        // processed in parallel would overwrite each other's
+        Config.PIPELINE_ENABLED = false;
+        Config.TELEMETRY_ENABLED = false;
+
+        List<Region> regions = new ArrayList<>();
+        List<Path> recordings = new ArrayList<>();
+        double threshold = 20;
+        double tolerance = 20000;
+        Long startTimeMillis = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--region":
+                    regions.add(Region.parse(args[++i]));
+                    break;
+                case "--threshold":
+                    threshold = Double.parseDouble(args[++i]);
+                    break;
+                case "--tolerance":
+                    tolerance = Double.parseDouble(args[++i]);
+                    break;
+                case "--start":
+                    startTimeMillis = LocalDateTime.parse(args[++i],
+                            DateTimeFormatter.ofPattern(Config.TIMESTAMP_FORMAT))
+                            .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                    break;
+                default:
+                    recordings.add(Paths.get(args[i]));
+            }
+        }
+        if (recordings.isEmpty()) {
+            System.err.println("Usage: HeadlessMain [--region NAME:x1,y1,x2,y2]... [--threshold N] [--tolerance N] "
+                    + "[--start TIMESTAMP] <video file or image directory>...");
+            System.err.println("Without --start, each video is taken to have started its duration before it was "
+                    + "last modified.");
+            System.exit(1);
+        }
+        if (regions.isEmpty()) {
+            regions.addAll(Config.REGIONS);
+        }
+        if (regions.isEmpty()) {
+            regions.add(new Region("REPLAY", Config.CAMERA_ID, 0, 0, Config.DISPLAY_WIDTH_PIXELS,
+                    Config.DISPLAY_HEIGHT_PIXELS));
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        ExecutorService replayPool = Executors.newFixedThreadPool(
+                Config.CAPTURE_CORE_BUDGET > 0 ? Math.min(Config.CAPTURE_CORE_BUDGET, cores) : cores);
+        for (Path recording : recordings) {
+            FrameSource source = createSource(recording, startTimeMillis);
+            double replayThreshold = threshold;
+            double replayTolerance = tolerance;
+            replayPool.execute(() -> replay(source, regions, replayThreshold, replayTolerance));
+        }
+        replayPool.shutdown();
+        replayPool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+        ResultWriter.getInstance().close();
+        EventStore.closeShared();
+        LOG.info("Exiting headless main");
+    }
+
+    /**
+     * Open a recording as an image directory or video file. Video timestamps start at the given time, or if null, at
+     * the file's last modified time less the video's duration.
+     */
+    static FrameSource createSource(Path recording, Long startTimeMillis) {
+        if (Files.isDirectory(recording)) {
+            return new ImageDirectoryFrameSource(recording);
+        }
+        if (startTimeMillis != null) {
+            return new VideoFileFrameSource(recording, startTimeMillis);
+        }
+        try {
+            return VideoFileFrameSource.endingAt(recording, Files.getLastModifiedTime(recording).toMillis());
+        } catch (IOException e) {
+            LOG.warn("Unable to read modified time of " + recording + ", timestamps will start at the epoch");
+            return new VideoFileFrameSource(recording, 0);
+        }
+    }
+
+    private static void replay(FrameSource source, List<Region> regions, double threshold, double tolerance) {
+        CaptureDevice device = CaptureDevice.forReplay(source);
+        // Each recording has its own correlator, as the recordings are unrelated and are replayed at different paces
+        EventCorrelator correlator = new EventCorrelator();
+        List<String> locations = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            locations.add(region.getName());
+        }
+        correlator.setRegions(locations);
+        List<MotionDetector> detectors = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            MotionDetector detector = new MotionDetector();
+            detector.setLocation(region.getName());
+            detector.setCaptureDevice(device);
+            detector.setEventCorrelator(correlator);
+            detector.setPersistFrames(false);
+            detector.setBoundingBox(region.getX1(), region.getY1(), region.getX2(), region.getY2());
+            detector.setThreshold(threshold);
+            detector.setDetectionTolerance(tolerance);
+            detector.capture();
+            detectors.add(detector);
+        }
+
+        long startNanos = System.nanoTime();
+        long frames = device.replay();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        LOG.info(String.format("Replayed %d frames of %s in %.1f s (%.0f fps)", frames, source, seconds,
+                frames / seconds));
+
+        for (MotionDetector detector : detectors) {
+            detector.stopAcquisition(false);
+        }
+        device.close();
+        correlator.flush();
+    }
+}
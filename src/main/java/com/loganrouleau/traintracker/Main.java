@@ -1,6 +1,7 @@
 package com.loganrouleau.traintracker;
 
 import com.loganrouleau.traintracker.controller.BaseController;
+import com.loganrouleau.traintracker.model.LiveViewServer;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -46,6 +47,9 @@ public class Main extends Application {
         LOG.info("Entering main");
         System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
         Config.loadProperties();
+        if (Config.LIVE_VIEW_ENABLED) {
+            LiveViewServer.getInstance().start();
+        }
         launch(args);
         LOG.info("Exiting main");
     }
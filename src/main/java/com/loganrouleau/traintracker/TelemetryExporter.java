@@ -0,0 +1,134 @@
+package com.loganrouleau.traintracker;
+
+import com.loganrouleau.traintracker.model.TelemetryRecorder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.CENTROID_X_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.CENTROID_Y_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.DETECT_NANOS_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.DIFF_NANOS_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.HEADER_BYTES;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.HEADER_CAPACITY_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.HEADER_MAGIC_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.HEADER_NEXT_SEQUENCE_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.HEADER_RECORD_BYTES_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.HEADER_VERSION_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.M00_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.MAGIC;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.MOMENTS_NANOS_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.SEQUENCE_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.STATE_CALIBRATING;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.STATE_DETECTED_FRAMES_SHIFT;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.STATE_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.STATE_TRACKING_CENTROIDS;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.STATE_TRAIN_DETECTED;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.STATE_UPDATE_NANOS_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.TIMESTAMP_NANOS_OFFSET;
+import static com.loganrouleau.traintracker.model.TelemetryRecorder.VERSION;
+
+/**
+ * Command line tool which converts a window of a {@link TelemetryRecorder} ring file to csv.
+ * <p>
+ * Usage: {@code TelemetryExporter <telemetry file> [number of most recent records] [output csv]}. Without a record
+ * count the whole ring is exported, and without an output file the csv is written to standard out.
+ */
+public final class TelemetryExporter {
+    private static final String CSV_HEADER = "Sequence,Timestamp Nanos,m00,Centroid X,Centroid Y,Train Detected,"
+            + "Tracking Centroids,Calibrating,Detected Frames,Diff Nanos,Moments Nanos,State Update Nanos,"
+            + "Detect Nanos";
+
+    private TelemetryExporter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: TelemetryExporter <telemetry file> [number of most recent records] "
+                    + "[output csv]");
+            System.exit(1);
+        }
+        Path telemetryFile = Paths.get(args[0]);
+        long recordCount = args.length > 1 ? Long.parseLong(args[1]) : Long.MAX_VALUE;
+
+        if (args.length > 2) {
+            try (Writer out = Files.newBufferedWriter(Paths.get(args[2]), StandardCharsets.UTF_8)) {
+                export(telemetryFile, recordCount, out);
+            }
+        } else {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            export(telemetryFile, recordCount, out);
+            out.flush();
+        }
+    }
+
+    /**
+     * Write up to the given number of the most recent records as csv, oldest first.
+     *
+     * @return the number of records written
+     */
+    public static long export(Path telemetryFile, long recordCount, Writer out) throws IOException {
+        try (FileChannel channel = FileChannel.open(telemetryFile, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(HEADER_MAGIC_OFFSET) != MAGIC || buffer.getInt(HEADER_VERSION_OFFSET) != VERSION) {
+                throw new IOException(telemetryFile + " is not a version " + VERSION + " telemetry file");
+            }
+            int recordBytes = buffer.getInt(HEADER_RECORD_BYTES_OFFSET);
+            long capacity = buffer.getLong(HEADER_CAPACITY_OFFSET);
+            long nextSequence = buffer.getLong(HEADER_NEXT_SEQUENCE_OFFSET);
+            long firstSequence = Math.max(0, nextSequence - Math.min(capacity, recordCount));
+
+            PrintWriter writer = new PrintWriter(out);
+            writer.println(CSV_HEADER);
+            long written = 0;
+            for (long sequence = firstSequence; sequence < nextSequence; sequence++) {
+                int offset = (int) (HEADER_BYTES + Math.floorMod(sequence, capacity) * recordBytes);
+                if (buffer.getLong(offset + SEQUENCE_OFFSET) != sequence) {
+                    // Overwritten by the recorder while exporting
+                    continue;
+                }
+                int state = buffer.getInt(offset + STATE_OFFSET);
+                writer.print(sequence);
+                writer.print(',');
+                writer.print(buffer.getLong(offset + TIMESTAMP_NANOS_OFFSET));
+                writer.print(',');
+                writer.print(buffer.getDouble(offset + M00_OFFSET));
+                writer.print(',');
+                writer.print(buffer.getDouble(offset + CENTROID_X_OFFSET));
+                writer.print(',');
+                writer.print(buffer.getDouble(offset + CENTROID_Y_OFFSET));
+                writer.print(',');
+                writer.print((state & STATE_TRAIN_DETECTED) != 0);
+                writer.print(',');
+                writer.print((state & STATE_TRACKING_CENTROIDS) != 0);
+                writer.print(',');
+                writer.print((state & STATE_CALIBRATING) != 0);
+                writer.print(',');
+                writer.print((state >>> STATE_DETECTED_FRAMES_SHIFT) & 0xFF);
+                writer.print(',');
+                writer.print(buffer.getInt(offset + DIFF_NANOS_OFFSET));
+                writer.print(',');
+                writer.print(buffer.getInt(offset + MOMENTS_NANOS_OFFSET));
+                writer.print(',');
+                writer.print(buffer.getInt(offset + STATE_UPDATE_NANOS_OFFSET));
+                writer.print(',');
+                writer.println(buffer.getInt(offset + DETECT_NANOS_OFFSET));
+                written++;
+            }
+            writer.flush();
+            return written;
+        }
+    }
+}
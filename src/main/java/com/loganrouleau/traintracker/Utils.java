@@ -1,50 +0,0 @@
-package com.loganrouleau.traintracker;
-
-import javafx.embed.swing.SwingFXUtils;
-import javafx.scene.image.Image;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.opencv.core.Mat;
-
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
-
-/**
- * Provide general purpose methods for handling OpenCV-JavaFX data conversion.
- */
-public final class Utils {
-    private static final Logger LOG = LogManager.getLogger(Utils.class);
-
-    /**
-     * Convert an OpenCV Mat object to the corresponding JavaFX Image.
-     */
-    public static Image mat2Image(Mat frame) {
-        try {
-            return SwingFXUtils.toFXImage(matToBufferedImage(frame), null);
-        } catch (Exception e) {
-            LOG.warn("Cannot convert the Mat object: " + e);
-            return null;
-        }
-    }
-
-    /**
-     * Support for the {@link #mat2Image} method
-     */
-    private static BufferedImage matToBufferedImage(Mat original) {
-        BufferedImage image = null;
-        int width = original.width(), height = original.height(), channels = original.channels();
-        byte[] sourcePixels = new byte[width * height * channels];
-        original.get(0, 0, sourcePixels);
-
-        if (original.channels() > 1) {
-            image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-        } else {
-            image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
-        }
-        final byte[] targetPixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-        System.arraycopy(sourcePixels, 0, targetPixels, 0, sourcePixels.length);
-
-        return image;
-    }
-
-}
\ No newline at end of file
@@ -1,28 +1,62 @@
 package com.loganrouleau.traintracker.controller;
 
+import com.loganrouleau.traintracker.Config;
+import com.loganrouleau.traintracker.model.EventCorrelator;
+import com.loganrouleau.traintracker.model.EventStore;
+import com.loganrouleau.traintracker.model.LiveViewServer;
+import com.loganrouleau.traintracker.model.Region;
+import com.loganrouleau.traintracker.model.ResultWriter;
+import com.loganrouleau.traintracker.model.SnapshotEncoder;
 import javafx.fxml.FXML;
-import javafx.scene.layout.BorderPane;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.layout.FlowPane;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Used to encapsulate multiple camera controllers.
+ * Used to encapsulate multiple camera controllers, one for each configured region. The regions are configured from
+ * west to east, which is the order trains are correlated in.
  */
 public class BaseController {
+    private static final Logger LOG = LogManager.getLogger(BaseController.class);
+
     @FXML
-    private BorderPane leftCamera;
-    @FXML
-    private BorderPane rightCamera;
-    @FXML
-    private CameraController leftCameraController;
-    @FXML
-    private CameraController rightCameraController;
+    private FlowPane cameraViews;
+
+    private final List<CameraController> cameraControllers = new ArrayList<>();
 
     public void initialize() {
-        leftCameraController.init("LEFT");
-        rightCameraController.init("RIGHT");
+        List<String> locations = new ArrayList<>();
+        for (Region region : Config.REGIONS) {
+            FXMLLoader loader = new FXMLLoader(getClass().getResource(
+                    "/com/loganrouleau/traintracker/view/camera.fxml"));
+            try {
+                Parent cameraView = loader.load();
+                CameraController controller = loader.getController();
+                controller.init(region);
+                cameraViews.getChildren().add(cameraView);
+                cameraControllers.add(controller);
+                locations.add(region.getName());
+            } catch (IOException e) {
+                LOG.error("Unable to load camera view for " + region + ": " + e);
+            }
+        }
+        EventCorrelator.getInstance().setRegions(locations);
     }
 
     public void onWindowCloseRequest() {
-        leftCameraController.onWindowCloseRequest();
-        rightCameraController.onWindowCloseRequest();
+        for (CameraController controller : cameraControllers) {
+            controller.onWindowCloseRequest();
+        }
+        LiveViewServer.getInstance().close();
+        EventCorrelator.getInstance().flush();
+        SnapshotEncoder.getInstance().close();
+        ResultWriter.getInstance().close();
+        EventStore.closeShared();
     }
 }
@@ -1,10 +1,17 @@
 package com.loganrouleau.traintracker.controller;
 
 import com.loganrouleau.traintracker.Config;
+import com.loganrouleau.traintracker.FrameRenderer;
+import com.loganrouleau.traintracker.model.DeliveryPolicy;
+import com.loganrouleau.traintracker.model.DetectionStarted;
+import com.loganrouleau.traintracker.model.DetectorEvents;
 import com.loganrouleau.traintracker.model.FrameData;
+import com.loganrouleau.traintracker.model.FrameMetrics;
+import com.loganrouleau.traintracker.model.CaptureDevice;
 import com.loganrouleau.traintracker.model.MotionDetector;
-import com.loganrouleau.traintracker.model.ResultWriter;
-import javafx.application.Platform;
+import com.loganrouleau.traintracker.model.Region;
+import com.loganrouleau.traintracker.model.StageLatency;
+import javafx.animation.AnimationTimer;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
@@ -16,20 +23,44 @@ import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.opencv.core.Rect;
 
 import java.nio.file.Paths;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Handles requests for a single {@link ImageView}-camera pair, and feeds UI updates back to the camera view.
+ * Handles requests for a single {@link ImageView}-camera pair, and feeds UI updates back to the camera view. The view
+ * subscribes to the detector's latest {@link FrameData} and picks it up once per JavaFX pulse, so frames that arrive
+ * faster than the display refreshes are dropped instead of queueing up behind each other. The detection cue is
+ * subscribed to separately, so it sounds for every detection even if the frame starting it is never shown.
  */
-public class CameraController extends BaseController implements Observer {
+public class CameraController extends BaseController {
     private static final Logger LOG = LogManager.getLogger(CameraController.class);
+    private static final long OVERLAY_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
 
     private MotionDetector motionDetector;
+    private final FrameRenderer frameRenderer = new FrameRenderer();
     private MediaPlayer mediaPlayer;
     private boolean cameraActive = false;
+    private DetectorEvents.Subscription frameSubscription;
+    private DetectorEvents.Subscription detectionSubscription;
+
+    // Written by event delivery threads, taken by the JavaFX Application Thread on each pulse
+    private final AtomicReference<FrameData> latestFrameData = new AtomicReference<>();
+    private final AtomicReference<String> latestOverlayText = new AtomicReference<>();
+    private final AtomicBoolean detectionCuePending = new AtomicBoolean();
+    private final AnimationTimer viewUpdater = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            updateView();
+        }
+    };
+
+    // Owned by the frame subscription, which is never delivered to concurrently
+    private long lastOverlayNanos;
 
     // TODO: Make calibrate button shared among both views
     @FXML
@@ -50,6 +81,8 @@ public class CameraController extends BaseController implements Observer {
     @FXML
     private Label label;
     @FXML
+    private Label metricsOverlay;
+    @FXML
     private TextField x1Text;
     @FXML
     private TextField y1Text;
@@ -63,21 +96,28 @@ public class CameraController extends BaseController implements Observer {
     public void initialize() {
     }
 
-    public void init(String location) {
+    public void init(Region region) {
         motionDetector = new MotionDetector();
-        motionDetector.addObserver(this);
-        motionDetector.setLocation(location);
+        frameSubscription = motionDetector.getEvents().subscribe(FrameData.class, DeliveryPolicy.LATEST_ONLY,
+                this::onFrameData);
+        detectionSubscription = motionDetector.getEvents().subscribe(DetectionStarted.class,
+                DeliveryPolicy.LOSSLESS, event -> detectionCuePending.set(true));
+        motionDetector.setLocation(region.getName());
+        motionDetector.setCaptureDevice(CaptureDevice.forCamera(region.getCameraId()));
+        motionDetector.setFrameRenderer(frameRenderer);
         Media sound = new Media(Paths.get("C:\\Users\\lroul\\projects\\train-tracker\\src\\main\\resources\\camera-click.wav").toUri().toString());
         mediaPlayer = new MediaPlayer(sound);
-        x1Text.setText(String.valueOf(0));
-        y1Text.setText(String.valueOf(0));
-        x2Text.setText(String.valueOf(Config.DISPLAY_WIDTH_PIXELS));
-        y2Text.setText(String.valueOf(Config.DISPLAY_HEIGHT_PIXELS));
+        x1Text.setText(String.valueOf(region.getX1()));
+        y1Text.setText(String.valueOf(region.getY1()));
+        x2Text.setText(String.valueOf(region.getX2()));
+        y2Text.setText(String.valueOf(region.getY2()));
+        metricsOverlay.setVisible(Config.METRICS_OVERLAY_ENABLED);
 
         thresholdSlider.valueProperty().addListener((observable, oldValue, newValue) ->
                 motionDetector.setThreshold(thresholdSlider.getValue()));
         detectionToleranceSlider.valueProperty().addListener((observable, oldValue, newValue) ->
                 motionDetector.setDetectionTolerance(detectionToleranceSlider.getValue()));
+        viewUpdater.start();
         updateImage();
     }
 
@@ -97,6 +137,22 @@ public class CameraController extends BaseController implements Observer {
         calibrateButton.setText(motionDetector.isCalibrating() ? "Stop" : "Calibrate");
     }
 
+    /**
+     * Fill the bounding box fields with the detector's suggested region, which is used when the camera next starts.
+     */
+    @FXML
+    public void onFitRegion() {
+        Rect box = motionDetector.adoptSuggestedBoundingBox();
+        if (box == null) {
+            LOG.info("No suggested bounding box yet");
+            return;
+        }
+        x1Text.setText(String.valueOf(box.x));
+        y1Text.setText(String.valueOf(box.y));
+        x2Text.setText(String.valueOf(box.x + box.width));
+        y2Text.setText(String.valueOf(box.y + box.height));
+    }
+
     @FXML
     protected void onCaptureButton() {
         if (cameraActive) {
@@ -114,12 +170,16 @@ public class CameraController extends BaseController implements Observer {
     }
 
     /**
-     * On application close, stop the acquisition from the camera
+     * On application close, stop the acquisition from the camera. The shared writers are closed by the
+     * {@link BaseController} once every camera has stopped.
      */
     public void onWindowCloseRequest() {
+        viewUpdater.stop();
+        frameSubscription.cancel();
+        detectionSubscription.cancel();
         mediaPlayer.stop();
         motionDetector.stopAcquisition(true);
-        ResultWriter.getInstance().close();
+        frameRenderer.release();
     }
 
     private void updateImage() {
@@ -135,27 +195,68 @@ public class CameraController extends BaseController implements Observer {
     }
 
     /**
-     * Update the view when FrameData is received.
+     * Keep FrameData for the next pulse, replacing any not yet shown. Called on an event delivery thread.
+     */
+    private void onFrameData(FrameData frameData) {
+        if (Config.METRICS_OVERLAY_ENABLED) {
+            updateMetricsOverlay();
+        }
+        latestFrameData.set(frameData);
+    }
+
+    /**
+     * Apply the most recent FrameData, if any arrived since the last pulse. Called on the JavaFX Application Thread.
      */
-    @Override
-    public void update(Observable o, Object arg) {
-        try {
-            FrameData frameData = (FrameData) arg;
-
-            Platform.runLater(() -> imageView.imageProperty().set(frameData.getImage()));
-            Platform.runLater(() -> motionLabel.setText(String.format("diffSum: %.0f", frameData.getDiffFrameIntensitySum())));
-
-            if (frameData.isTrainDetected()) {
-                Platform.runLater(() -> statusLabel.setText("Train detected!"));
-                if (Config.AUDIO_ENABLED) {
-                    mediaPlayer.stop();
-                    mediaPlayer.play();
-                }
-            } else {
-                Platform.runLater(() -> statusLabel.setText(""));
-            }
-        } catch (Exception e) {
-            LOG.warn("Expected instance of FrameData. Skipping update");
+    private void updateView() {
+        String overlayText = latestOverlayText.getAndSet(null);
+        if (overlayText != null) {
+            metricsOverlay.setText(overlayText);
+        }
+        if (detectionCuePending.getAndSet(false) && Config.AUDIO_ENABLED) {
+            mediaPlayer.stop();
+            mediaPlayer.play();
+        }
+
+        FrameData frameData = latestFrameData.getAndSet(null);
+        if (frameData == null) {
+            return;
+        }
+        imageView.setImage(frameRenderer.render());
+        if (Config.PIPELINE_ENABLED) {
+            motionLabel.setText(String.format("diffSum: %.0f%nqueued: %d dropped: %d",
+                    frameData.getDiffFrameIntensitySum(), frameData.getQueuedFrames(), frameData.getDroppedFrames()));
+        } else {
+            motionLabel.setText(String.format("diffSum: %.0f", frameData.getDiffFrameIntensitySum()));
+        }
+        statusLabel.setText(frameData.isTrainDetected() ? "Train detected!" : "");
+    }
+
+    /**
+     * Show the frame rate, counters and stage latencies of the detector and its device, at most twice a second so the
+     * overlay is readable and costs next to nothing. Called on an event delivery thread.
+     */
+    private void updateMetricsOverlay() {
+        long now = System.nanoTime();
+        if (now - lastOverlayNanos < OVERLAY_INTERVAL_NANOS) {
+            return;
+        }
+        lastOverlayNanos = now;
+
+        FrameMetrics detectorMetrics = motionDetector.getMetrics();
+        FrameMetrics deviceMetrics = motionDetector.getCaptureDeviceMetrics();
+        long droppedFrames = deviceMetrics.getFramesDropped() + detectorMetrics.getFramesDropped();
+        StringBuilder text = new StringBuilder(String.format("%.1f fps  dropped: %d  trains: %d",
+                detectorMetrics.getEffectiveFps(), droppedFrames, detectorMetrics.getEventsDetected()));
+        appendStageLatencies(text, deviceMetrics.getStageLatencies());
+        appendStageLatencies(text, detectorMetrics.getStageLatencies());
+        latestOverlayText.set(text.toString());
+    }
+
+    private static void appendStageLatencies(StringBuilder text, Map<String, StageLatency> latencies) {
+        for (Map.Entry<String, StageLatency> entry : latencies.entrySet()) {
+            StageLatency latency = entry.getValue();
+            text.append(String.format("%n%-14s p50 %7.2f  p99 %7.2f ms", entry.getKey(),
+                    latency.getP50Micros() / 1000, latency.getP99Micros() / 1000));
         }
     }
 }
@@ -0,0 +1,283 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Evaluates a whole grid of threshold and detection tolerance settings over a recording in a single pass, for
+ * calibrating a region against a recording with known train events. Not thread safe.
+ * <p>
+ * Each frame is diffed against the previous frame once. Rather than thresholding the diff for every candidate
+ * threshold, a histogram of the diff intensities is built along with the sum of x coordinates in each intensity bin.
+ * The thresholded image is binary, so its moments for threshold t are just 255 times the pixel count and x sum of
+ * every bin above t, which a running sum over the bins gives for all thresholds at once. Each setting then advances its
+ * own {@link DetectionState}, exactly as a {@link MotionDetector} with those settings would.
+ */
+public class CalibrationSweep {
+    private static final Logger LOG = LogManager.getLogger(CalibrationSweep.class);
+    private static final int INTENSITY_LEVELS = 256;
+    private static final int DIRECTION_COLUMN = 4;
+
+    private final Rect captureBox;
+    private final int[] thresholds;
+    private final double[] tolerances;
+    // Indices into thresholds from the highest threshold to the lowest, so the bins are accumulated in a single walk
+    private final int[] descendingThresholds;
+    private final DetectionState[][] states;
+    private final List<List<Event>> detectedEvents = new ArrayList<>();
+
+    private final long[] binCounts = new long[INTENSITY_LEVELS];
+    private final long[] binXSums = new long[INTENSITY_LEVELS];
+    private byte[] diffPixels;
+
+    /**
+     * @param captureBox the region to detect in, in the coordinates of the full frame
+     * @param thresholds the grayscale intensity thresholds to evaluate, each 0-254
+     * @param tolerances the motion detection tolerances to evaluate
+     */
+    public CalibrationSweep(Rect captureBox, int[] thresholds, double[] tolerances) {
+        this.captureBox = captureBox;
+        this.thresholds = thresholds;
+        this.tolerances = tolerances;
+        states = new DetectionState[thresholds.length][tolerances.length];
+        for (int i = 0; i < thresholds.length; i++) {
+            if (thresholds[i] < 0 || thresholds[i] >= INTENSITY_LEVELS - 1) {
+                throw new IllegalArgumentException("Threshold out of range: " + thresholds[i]);
+            }
+            for (int j = 0; j < tolerances.length; j++) {
+                states[i][j] = new DetectionState();
+                detectedEvents.add(new ArrayList<>());
+            }
+        }
+        descendingThresholds = new int[thresholds.length];
+        Integer[] indices = new Integer[thresholds.length];
+        for (int i = 0; i < thresholds.length; i++) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, Comparator.comparingInt((Integer i) -> thresholds[i]).reversed());
+        for (int i = 0; i < thresholds.length; i++) {
+            descendingThresholds[i] = indices[i];
+        }
+    }
+
+    /**
+     * Read every frame of a recording and advance every setting's detection state with it.
+     *
+     * @return the number of frames read
+     */
+    public long run(FrameSource source) {
+        if (!source.open()) {
+            LOG.warn("Unable to open " + source);
+            return 0;
+        }
+        Mat frame = new Mat();
+        Mat grayFrame = new Mat();
+        Mat prevFrame = new Mat();
+        Mat diffFrame = new Mat();
+        long frames = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted() && source.read(frame)) {
+                Imgproc.cvtColor(frame, grayFrame, Imgproc.COLOR_BGR2GRAY);
+                Mat roi = grayFrame.submat(captureBox);
+                if (!prevFrame.empty()) {
+                    Core.absdiff(roi, prevFrame, diffFrame);
+                    processDiff(diffFrame, source.getFrameTimeMillis());
+                }
+                roi.copyTo(prevFrame);
+                roi.release();
+                frames++;
+            }
+        } finally {
+            source.close();
+            frame.release();
+            grayFrame.release();
+            prevFrame.release();
+            diffFrame.release();
+        }
+        return frames;
+    }
+
+    private void processDiff(Mat diffFrame, long frameTimeMillis) {
+        int width = diffFrame.cols();
+        int pixelCount = width * diffFrame.rows();
+        if (diffPixels == null || diffPixels.length != pixelCount) {
+            diffPixels = new byte[pixelCount];
+        }
+        // The diff is freshly allocated by absdiff, so it is continuous and can be read in one call
+        diffFrame.get(0, 0, diffPixels);
+
+        Arrays.fill(binCounts, 0);
+        Arrays.fill(binXSums, 0);
+        for (int offset = 0; offset < pixelCount; offset += width) {
+            for (int x = 0; x < width; x++) {
+                int intensity = diffPixels[offset + x] & 0xFF;
+                binCounts[intensity]++;
+                binXSums[intensity] += x;
+            }
+        }
+
+        // The thresholded image has a pixel of 255 wherever the diff is above the threshold
+        long countAbove = 0;
+        long xSumAbove = 0;
+        int bin = INTENSITY_LEVELS - 1;
+        for (int threshold : descendingThresholds) {
+            for (; bin > thresholds[threshold]; bin--) {
+                countAbove += binCounts[bin];
+                xSumAbove += binXSums[bin];
+            }
+            double m00 = 255.0 * countAbove;
+            double centroidX = (255.0 * xSumAbove) / m00;
+            for (int j = 0; j < tolerances.length; j++) {
+                TrainEvent event = states[threshold][j].update(m00, tolerances[j], centroidX, frameTimeMillis);
+                if (event != null) {
+                    detectedEvents.get(threshold * tolerances.length + j)
+                            .add(new Event(frameTimeMillis, event.getDirection()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Score every setting's detected events against the labelled events. A detection counts as a true positive if it
+     * has the same direction as an unmatched label within the match window of it.
+     */
+    public List<SweepResult> evaluate(List<Event> labels, long matchWindowMillis) {
+        List<SweepResult> results = new ArrayList<>(detectedEvents.size());
+        for (int i = 0; i < thresholds.length; i++) {
+            for (int j = 0; j < tolerances.length; j++) {
+                List<Event> detected = detectedEvents.get(i * tolerances.length + j);
+                boolean[] matched = new boolean[labels.size()];
+                int truePositives = 0;
+                for (Event event : detected) {
+                    for (int k = 0; k < labels.size(); k++) {
+                        Event label = labels.get(k);
+                        if (!matched[k] && label.direction.equals(event.direction)
+                                && Math.abs(label.timeMillis - event.timeMillis) <= matchWindowMillis) {
+                            matched[k] = true;
+                            truePositives++;
+                            break;
+                        }
+                    }
+                }
+                results.add(new SweepResult(thresholds[i], tolerances[j], detected.size(), labels.size(),
+                        truePositives));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Read labelled events from a csv in the result file format, where the first column is the timestamp and the fifth
+     * is the direction. Any further columns are ignored, and the header line is skipped.
+     */
+    public static List<Event> readLabels(Path labelFile) throws IOException {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(Config.TIMESTAMP_FORMAT);
+        List<Event> labels = new ArrayList<>();
+        List<String> lines = Files.readAllLines(labelFile, StandardCharsets.UTF_8);
+        for (int i = 1; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] columns = line.split(",");
+            long timeMillis = LocalDateTime.parse(columns[0].trim(), formatter)
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            labels.add(new Event(timeMillis, columns[DIRECTION_COLUMN].trim()));
+        }
+        return labels;
+    }
+
+    /**
+     * A train leaving the region in a direction, either detected or labelled.
+     */
+    public static class Event {
+        private final long timeMillis;
+        private final String direction;
+
+        public Event(long timeMillis, String direction) {
+            this.timeMillis = timeMillis;
+            this.direction = direction;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        public String getDirection() {
+            return direction;
+        }
+    }
+
+    /**
+     * How well one threshold and tolerance setting detected the labelled events.
+     */
+    public static class SweepResult {
+        private final int threshold;
+        private final double tolerance;
+        private final int detectedEvents;
+        private final int labelledEvents;
+        private final int truePositives;
+
+        private SweepResult(int threshold, double tolerance, int detectedEvents, int labelledEvents,
+                            int truePositives) {
+            this.threshold = threshold;
+            this.tolerance = tolerance;
+            this.detectedEvents = detectedEvents;
+            this.labelledEvents = labelledEvents;
+            this.truePositives = truePositives;
+        }
+
+        public int getThreshold() {
+            return threshold;
+        }
+
+        public double getTolerance() {
+            return tolerance;
+        }
+
+        public int getDetectedEvents() {
+            return detectedEvents;
+        }
+
+        public int getTruePositives() {
+            return truePositives;
+        }
+
+        /**
+         * The fraction of detections which match a label, or 0 if nothing was detected.
+         */
+        public double getPrecision() {
+            return detectedEvents == 0 ? 0 : truePositives / (double) detectedEvents;
+        }
+
+        /**
+         * The fraction of labels which were detected, or 0 if there are no labels.
+         */
+        public double getRecall() {
+            return labelledEvents == 0 ? 0 : truePositives / (double) labelledEvents;
+        }
+
+        public double getF1() {
+            double precision = getPrecision();
+            double recall = getRecall();
+            return precision + recall == 0 ? 0 : 2 * precision * recall / (precision + recall);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+
+import static org.opencv.videoio.Videoio.CV_CAP_PROP_FRAME_HEIGHT;
+import static org.opencv.videoio.Videoio.CV_CAP_PROP_FRAME_WIDTH;
+import static org.opencv.videoio.Videoio.CV_CAP_PROP_POS_MSEC;
+
+/**
+ * Live frames from a camera device, at the configured display resolution. Frames are timed by the device when the
+ * capture backend reports when each frame was captured, which excludes any delay in reading it, and otherwise by the
+ * monotonic clock when the frame was read.
+ */
+public class CameraFrameSource implements FrameSource {
+    private final int cameraId;
+    private final VideoCapture capture = new VideoCapture();
+    private long frameTimeMillis;
+    private long frameTimeNanos;
+    // Decided on the first frame after opening, so frames are never timed by a mix of clocks
+    private Boolean deviceTimestamps;
+
+    public CameraFrameSource(int cameraId) {
+        this.cameraId = cameraId;
+    }
+
+    @Override
+    public boolean open() {
+        if (!capture.isOpened()) {
+            capture.open(cameraId);
+            capture.set(CV_CAP_PROP_FRAME_WIDTH, Config.DISPLAY_WIDTH_PIXELS);
+            capture.set(CV_CAP_PROP_FRAME_HEIGHT, Config.DISPLAY_HEIGHT_PIXELS);
+            deviceTimestamps = null;
+        }
+        return capture.isOpened();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return capture.isOpened();
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        boolean read = capture.read(frame);
+        frameTimeMillis = System.currentTimeMillis();
+        frameTimeNanos = System.nanoTime();
+        if (read && !Boolean.FALSE.equals(deviceTimestamps)) {
+            double deviceMillis = capture.get(CV_CAP_PROP_POS_MSEC);
+            if (deviceTimestamps == null) {
+                deviceTimestamps = deviceMillis > 0;
+            }
+            if (deviceTimestamps) {
+                frameTimeNanos = (long) (deviceMillis * 1_000_000);
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public long getFrameTimeMillis() {
+        return frameTimeMillis;
+    }
+
+    @Override
+    public long getFrameTimeNanos() {
+        return frameTimeNanos;
+    }
+
+    @Override
+    public boolean isLive() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        capture.release();
+    }
+
+    @Override
+    public String toString() {
+        return "camera " + cameraId;
+    }
+}
@@ -0,0 +1,380 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link FrameSource} shared by any number of {@link MotionDetector}s. A single thread reads each frame and converts
+ * it to grayscale once, then hands the same frame to every registered detector. The detectors each work on their own
+ * region of the frame and only read the shared frame. With ROI first detection the whole frame is never converted, and
+ * each detector is handed the color frame to crop its region from before converting it. Thread safe.
+ * <p>
+ * A camera device runs its own capture thread at the configured frame rate, and runs the detectors in parallel on a
+ * pool shared by all camera devices, sized to the configured core budget so that adding cameras and regions does not
+ * oversubscribe the machine. A replay device instead reads a recording as fast as possible on the thread calling
+ * {@link #replay()}. With adaptive scheduling, a camera device samples at a low idle rate until a detector sees motion,
+ * see {@link FrameScheduler}.
+ */
+public class CaptureDevice {
+    private static final Logger LOG = LogManager.getLogger(CaptureDevice.class);
+    private static final Map<Integer, CaptureDevice> DEVICES = new HashMap<>();
+    // Shared by every running camera device, guarded by the class lock
+    private static ExecutorService sharedDetectorPool;
+    private static int sharedDetectorPoolUsers;
+
+    private final FrameSource source;
+    private final FrameScheduler scheduler;
+    private final FrameMetrics metrics = new FrameMetrics();
+    private final Mat capturedFrame = new Mat();
+    private final Mat grayFrame = new Mat();
+    private final boolean roiFirst = Config.DETECTION_ROI_FIRST;
+
+    // Held while a frame is read and dispatched, so detectors can wait for their last frame to finish
+    private final ReentrantLock frameLock = new ReentrantLock();
+    private final List<MotionDetector> detectors = new ArrayList<>();
+    private volatile List<Callable<Void>> detectorTasks = Collections.emptyList();
+    private ScheduledExecutorService timer;
+    private ExecutorService detectorPool;
+    // Guarded by the frame lock
+    private long frameSequence = 0;
+
+    private CaptureDevice(FrameSource source) {
+        this.source = source;
+        scheduler = new FrameScheduler(source.toString());
+    }
+
+    /**
+     * Get the shared device for a camera, creating it on first use.
+     */
+    public static synchronized CaptureDevice forCamera(int cameraId) {
+        return DEVICES.computeIfAbsent(cameraId, id -> new CaptureDevice(new CameraFrameSource(id)));
+    }
+
+    /**
+     * Create a device which replays a recording. Unlike camera devices it is not shared, and only delivers frames when
+     * {@link #replay()} is called.
+     */
+    public static CaptureDevice forReplay(FrameSource source) {
+        return new CaptureDevice(source);
+    }
+
+    /**
+     * Start delivering frames to a detector. For a live source, the capture thread is started if this is the first
+     * detector.
+     */
+    public synchronized void register(MotionDetector detector) {
+        if (detectors.contains(detector)) {
+            return;
+        }
+        if (detectors.isEmpty()) {
+            metrics.register("CaptureDevice", source.toString());
+        }
+        detectors.add(detector);
+        updateDetectorTasks();
+
+        if (timer == null && source.isLive()) {
+            source.open();
+            detectorPool = acquireDetectorPool();
+            String threadName = "capture-" + source;
+            timer = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, threadName));
+            if (scheduler.isAdaptive()) {
+                ScheduledExecutorService adaptiveTimer = timer;
+                timer.schedule(() -> grabAdaptiveFrame(adaptiveTimer), 500, TimeUnit.MILLISECONDS);
+            } else {
+                // Scheduled in nanoseconds, as a period in whole milliseconds drifts at rates which do not divide 1000
+                long periodNanos = TimeUnit.SECONDS.toNanos(1) / Config.FRAMES_PER_SECOND;
+                timer.scheduleAtFixedRate(() -> {
+                    long startNanos = System.nanoTime();
+                    grabFrame();
+                    scheduler.frameGrabbed(startNanos);
+                }, TimeUnit.MILLISECONDS.toNanos(500), periodNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Whether detectors may skip all but a cheap motion check on frames without motion, as the device is scheduling
+     * frames adaptively.
+     */
+    boolean isAdaptive() {
+        return scheduler.isAdaptive();
+    }
+
+    /**
+     * Switch to the full frame rate, as a detector has seen motion. See {@link FrameScheduler#requestBurst()}.
+     */
+    void requestBurst() {
+        scheduler.requestBurst();
+    }
+
+    void recordDetectionLatency(long latencyNanos) {
+        scheduler.recordDetectionLatency(latencyNanos);
+    }
+
+    /**
+     * The time spent reading and converting frames, and how many were read or failed to read.
+     */
+    public FrameMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stop delivering frames to a detector. Once this returns the detector is not processing a frame, so it may free
+     * its buffers. The capture thread is stopped and the source released when the last detector is removed.
+     */
+    public void unregister(MotionDetector detector) {
+        ScheduledExecutorService stoppedTimer = null;
+        ExecutorService stoppedPool = null;
+        synchronized (this) {
+            if (!detectors.remove(detector)) {
+                return;
+            }
+            updateDetectorTasks();
+            if (detectors.isEmpty()) {
+                metrics.unregister();
+                stoppedTimer = timer;
+                stoppedPool = detectorPool;
+                timer = null;
+                detectorPool = null;
+            }
+        }
+
+        if (stoppedTimer != null) {
+            // Once the capture thread has stopped, none of this device's detectors are left running on the pool
+            shutdown(stoppedTimer);
+            releaseDetectorPool(stoppedPool);
+            scheduler.report();
+        }
+
+        // Wait for any frame in flight, which may still reference the removed detector
+        frameLock.lock();
+        try {
+            if (stoppedTimer != null) {
+                source.close();
+            }
+        } finally {
+            frameLock.unlock();
+        }
+    }
+
+    /**
+     * Read a single full color frame into the given Mat. If the capture thread is running, the most recent frame is
+     * copied instead of reading the source from a second thread.
+     */
+    public void readFrame(Mat frame) {
+        frameLock.lock();
+        try {
+            synchronized (this) {
+                if (timer != null) {
+                    capturedFrame.copyTo(frame);
+                    return;
+                }
+                source.open();
+            }
+            source.read(frame);
+        } catch (Exception e) {
+            LOG.warn("Exception while reading frame: " + e);
+        } finally {
+            frameLock.unlock();
+        }
+    }
+
+    /**
+     * Read every frame of a recorded source on the calling thread, as fast as the detectors can process them, and run
+     * the registered detectors one after another on each.
+     *
+     * @return the number of frames read
+     */
+    public long replay() {
+        long frames = 0;
+        frameLock.lock();
+        try {
+            if (!source.open()) {
+                LOG.warn("Unable to open " + source);
+                return 0;
+            }
+            while (!Thread.currentThread().isInterrupted() && readTimed()) {
+                convertFrame();
+                for (Callable<Void> task : detectorTasks) {
+                    task.call();
+                }
+                metrics.frameProcessed();
+                frames++;
+            }
+        } catch (Exception e) {
+            LOG.warn("Exception while replaying " + source + ": " + e);
+        } finally {
+            frameLock.unlock();
+        }
+        return frames;
+    }
+
+    /**
+     * Stop the capture thread regardless of registered detectors and release the source.
+     */
+    public void close() {
+        List<MotionDetector> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(detectors);
+        }
+        for (MotionDetector detector : remaining) {
+            unregister(detector);
+        }
+
+        frameLock.lock();
+        try {
+            source.close();
+            capturedFrame.release();
+            grayFrame.release();
+        } finally {
+            frameLock.unlock();
+        }
+    }
+
+    private void grabFrame() {
+        frameLock.lock();
+        try {
+            try {
+                readTimed();
+            } catch (Exception e) {
+                LOG.warn("Exception while reading frame: " + e);
+            }
+            if (capturedFrame.empty()) {
+                metrics.frameDropped();
+                return;
+            }
+
+            convertFrame();
+
+            List<Callable<Void>> tasks = detectorTasks;
+            if (tasks.size() == 1) {
+                // No need to hand off to the pool when there is nothing to run in parallel
+                tasks.get(0).call();
+            } else if (!tasks.isEmpty()) {
+                detectorPool.invokeAll(tasks);
+            }
+            metrics.frameProcessed();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // An exception escaping a scheduled task would silently cancel all future frames
+            LOG.warn("Exception while processing frame: " + e);
+        } finally {
+            frameLock.unlock();
+        }
+    }
+
+    /**
+     * Grab a frame, then schedule the next one after the delay chosen by the scheduler. The timer is passed along so a
+     * frame in flight when the device is stopped reschedules onto the stopped timer rather than a newer one.
+     */
+    private void grabAdaptiveFrame(ScheduledExecutorService adaptiveTimer) {
+        long startNanos = System.nanoTime();
+        grabFrame();
+        long delayNanos = scheduler.frameGrabbed(startNanos);
+        try {
+            adaptiveTimer.schedule(() -> grabAdaptiveFrame(adaptiveTimer), delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // The device was stopped while this frame was being grabbed
+        }
+    }
+
+    private boolean readTimed() {
+        long startNanos = System.nanoTime();
+        boolean read = source.read(capturedFrame);
+        metrics.record(FrameMetrics.Stage.READ, System.nanoTime() - startNanos);
+        if (read) {
+            frameSequence++;
+        }
+        return read;
+    }
+
+    /**
+     * Convert the captured frame to grayscale for the detectors, unless they crop their regions from it first.
+     */
+    private void convertFrame() {
+        if (!roiFirst) {
+            long startNanos = System.nanoTime();
+            Imgproc.cvtColor(capturedFrame, grayFrame, Imgproc.COLOR_BGR2GRAY);
+            metrics.record(FrameMetrics.Stage.GRAY_CROP, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void updateDetectorTasks() {
+        List<Callable<Void>> tasks = new ArrayList<>(detectors.size());
+        for (MotionDetector detector : detectors) {
+            tasks.add(() -> {
+                try {
+                    detector.processFrame(roiFirst ? capturedFrame : grayFrame, frameSequence,
+                            source.getFrameTimeNanos(), source.getFrameTimeMillis());
+                } catch (Exception e) {
+                    LOG.warn("Exception while processing frame: " + e);
+                }
+                return null;
+            });
+        }
+        detectorTasks = tasks;
+    }
+
+    /**
+     * Get the pool shared by camera devices to run detectors on, starting it if no device is using it.
+     */
+    private static synchronized ExecutorService acquireDetectorPool() {
+        if (sharedDetectorPool == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            int threads = Config.CAPTURE_CORE_BUDGET > 0 ? Math.min(Config.CAPTURE_CORE_BUDGET, cores) : cores;
+            AtomicInteger threadCount = new AtomicInteger();
+            sharedDetectorPool = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "detector-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            LOG.info("Running detectors on " + threads + " threads");
+        }
+        sharedDetectorPoolUsers++;
+        return sharedDetectorPool;
+    }
+
+    /**
+     * Stop using the shared detector pool, shutting it down if no other device is using it.
+     */
+    private static void releaseDetectorPool(ExecutorService pool) {
+        synchronized (CaptureDevice.class) {
+            if (pool != sharedDetectorPool || --sharedDetectorPoolUsers > 0) {
+                return;
+            }
+            sharedDetectorPool = null;
+        }
+        shutdown(pool);
+    }
+
+    private static void shutdown(ExecutorService executor) {
+        try {
+            executor.shutdownNow();
+            if (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                LOG.warn("Frame capture did not stop in time");
+            }
+        } catch (SecurityException e) {
+            LOG.warn("Exception in stopping the frame capture: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.loganrouleau.traintracker.model;
+
+/**
+ * Estimates the direction and speed of a train from the centroids of the frames in which it is tracked, updating the
+ * estimates as each centroid arrives. Only the most recent centroids are kept, in a fixed size ring of primitives, so
+ * the memory used is the same however long the train takes to pass. Not thread safe.
+ * <p>
+ * Direction is a vote between consecutive centroids, as before. Speed is measured across the ring on every frame, from
+ * the oldest centroid to the newest, and averaged over the whole event.
+ */
+class CentroidTrack {
+    // The number of frames speed is measured across, long enough to smooth out noise in individual centroids
+    private static final int SPEED_WINDOW_FRAMES = 10;
+
+    private final double[] centroidXs = new double[SPEED_WINDOW_FRAMES];
+    private final long[] frameTimesMillis = new long[SPEED_WINDOW_FRAMES];
+    private int next;
+    private int size;
+
+    private int directionVotes;
+    private double previousCentroidX;
+    private long startTimeMillis;
+    private long lastTimeMillis;
+    private double speedSum;
+    private int speedSamples;
+    private boolean empty = true;
+
+    /**
+     * Add the centroid of the next tracked frame. The centroid is NaN if the frame had no motion at all.
+     */
+    void add(double centroidX, long frameTimeMillis) {
+        if (empty) {
+            startTimeMillis = frameTimeMillis;
+            previousCentroidX = Double.NaN;
+            empty = false;
+        }
+        lastTimeMillis = frameTimeMillis;
+
+        if (!Double.isNaN(previousCentroidX) && !Double.isNaN(centroidX)) {
+            directionVotes += centroidX > previousCentroidX ? 1 : -1;
+        }
+        previousCentroidX = centroidX;
+        if (Double.isNaN(centroidX)) {
+            return;
+        }
+
+        centroidXs[next] = centroidX;
+        frameTimesMillis[next] = frameTimeMillis;
+        next = (next + 1) % SPEED_WINDOW_FRAMES;
+        size = Math.min(size + 1, SPEED_WINDOW_FRAMES);
+        if (size > 1) {
+            // With the ring full, the slot after the newest holds the oldest
+            int oldest = size == SPEED_WINDOW_FRAMES ? next : 0;
+            long elapsedMillis = frameTimeMillis - frameTimesMillis[oldest];
+            if (elapsedMillis > 0) {
+                speedSum += Math.abs(centroidX - centroidXs[oldest]) * 1000 / elapsedMillis;
+                speedSamples++;
+            }
+        }
+    }
+
+    /**
+     * The event is over, so summarise it and start again for the next one.
+     */
+    TrainEvent finish() {
+        TrainEvent event = new TrainEvent(directionVotes > 0 ? "East" : "West",
+                speedSamples == 0 ? Double.NaN : speedSum / speedSamples, lastTimeMillis - startTimeMillis);
+        clear();
+        return event;
+    }
+
+    void clear() {
+        next = 0;
+        size = 0;
+        directionVotes = 0;
+        speedSum = 0;
+        speedSamples = 0;
+        empty = true;
+    }
+}
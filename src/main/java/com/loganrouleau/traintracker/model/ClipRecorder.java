@@ -0,0 +1,234 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records one video clip of a detector's region for each detection, in place of a snapshot per detected frame. The
+ * most recent frames are kept in a ring so the clip starts a pre-roll before the detection triggered, and frames keep
+ * being added for a post-roll after it ends.
+ * <p>
+ * Frames are timed by when they were captured rather than counted, since with adaptive scheduling they arrive at the
+ * idle rate until a detection starts. The pre-roll and post-roll cover their configured time at any rate, and the clip
+ * plays back in real time at the configured frame rate: a frame is repeated to fill the gap to the next, and one which
+ * arrives ahead of the clip's rate is skipped.
+ * <p>
+ * Frames are copied into Mats from a fixed {@link FramePool}, which bounds the native memory used by the ring and by
+ * frames waiting to be encoded. The detection thread only copies frames; a single encoder thread per recorder converts
+ * and writes them. If the encoder falls far enough behind that the pool runs out, frames are dropped from the clip
+ * rather than making detection wait.
+ */
+class ClipRecorder {
+    private static final Logger LOG = LogManager.getLogger(ClipRecorder.class);
+
+    private final String location;
+    private final double framesPerSecond;
+    private final long preRollNanos;
+    private final long postRollNanos;
+    private final FramePool framePool;
+    private final ExecutorService encoder;
+
+    // Owned by the detection thread
+    private final PipelineFrame[] ring;
+    private int ringStart = 0;
+    private int ringCount = 0;
+    private boolean recording = false;
+    private long postRollEndNanos;
+    private long droppedFrames = 0;
+
+    // Owned by the encoder thread
+    private final Mat colorFrame = new Mat();
+    private VideoWriter writer;
+    private Path clipPath;
+    private long clipStartNanos;
+    private long clipFrames;
+
+    /**
+     * @param framesPerSecond the rate clips play back at, which is also the most frames a second the ring holds
+     */
+    ClipRecorder(String location, double framesPerSecond, long preRollMillis, long postRollMillis, int queueFrames) {
+        this.location = location;
+        this.framesPerSecond = framesPerSecond;
+        preRollNanos = TimeUnit.MILLISECONDS.toNanos(preRollMillis);
+        postRollNanos = TimeUnit.MILLISECONDS.toNanos(postRollMillis);
+        int preRollFrames = (int) Math.ceil(preRollMillis * framesPerSecond / 1000);
+        ring = new PipelineFrame[Math.max(1, preRollFrames)];
+        framePool = new FramePool(ring.length + queueFrames);
+        encoder = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "clip-" + location));
+    }
+
+    /**
+     * Add a region frame, starting a clip when a train is first detected. Called on the detection thread for every
+     * frame, in order.
+     *
+     * @param frameTimeNanos the frame's monotonic capture time, which times the clip
+     */
+    void offer(Mat frame, long frameTimeNanos, long frameTimeMillis, boolean trainDetected) {
+        if (trainDetected) {
+            if (!recording) {
+                startClip(Timestamps.format(frameTimeMillis));
+            }
+            postRollEndNanos = frameTimeNanos + postRollNanos;
+        } else if (recording && frameTimeNanos > postRollEndNanos) {
+            finishClip();
+        }
+
+        if (recording) {
+            PipelineFrame clipFrame = framePool.tryAcquire();
+            if (clipFrame == null) {
+                droppedFrames++;
+                return;
+            }
+            frame.copyTo(clipFrame.getMat());
+            clipFrame.setFrameTime(0, frameTimeNanos, frameTimeMillis);
+            encoder.execute(() -> writeFrame(clipFrame));
+        } else {
+            keep(frame, frameTimeNanos);
+        }
+    }
+
+    /**
+     * Finish any clip in progress, wait for it to be written, then free the frames.
+     */
+    void close() {
+        if (recording) {
+            finishClip();
+        }
+        for (int i = 0; i < ringCount; i++) {
+            framePool.release(ring[(ringStart + i) % ring.length]);
+        }
+        ringCount = 0;
+        encoder.shutdown();
+        try {
+            if (!encoder.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.warn("Clip encoding for " + location + " did not finish in time");
+                encoder.shutdownNow();
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        framePool.releaseAll();
+        colorFrame.release();
+    }
+
+    /**
+     * Copy a frame into the ring, overwriting the oldest frame once the ring is full, then drop any frames from before
+     * the pre-roll.
+     */
+    private void keep(Mat frame, long frameTimeNanos) {
+        PipelineFrame slot;
+        if (ringCount == ring.length) {
+            slot = ring[ringStart];
+            ringStart = (ringStart + 1) % ring.length;
+        } else {
+            slot = framePool.tryAcquire();
+            if (slot == null) {
+                // Every frame is still waiting to be encoded from the last clip
+                return;
+            }
+            ringCount++;
+        }
+        ring[(ringStart + ringCount - 1) % ring.length] = slot;
+        frame.copyTo(slot.getMat());
+        slot.setFrameTime(0, frameTimeNanos, 0);
+
+        while (ringCount > 1 && ring[ringStart].getFrameTimeNanos() < frameTimeNanos - preRollNanos) {
+            framePool.release(ring[ringStart]);
+            ringStart = (ringStart + 1) % ring.length;
+            ringCount--;
+        }
+    }
+
+    /**
+     * Open a clip and hand it the pre-roll, emptying the ring.
+     */
+    private void startClip(String timestamp) {
+        recording = true;
+        droppedFrames = 0;
+        String fileName = timestamp + " " + location + "." + Config.CLIP_EXTENSION;
+        encoder.execute(() -> openClip(fileName));
+        for (int i = 0; i < ringCount; i++) {
+            PipelineFrame clipFrame = ring[(ringStart + i) % ring.length];
+            encoder.execute(() -> writeFrame(clipFrame));
+        }
+        ringStart = 0;
+        ringCount = 0;
+    }
+
+    private void finishClip() {
+        recording = false;
+        if (droppedFrames > 0) {
+            LOG.warn("Clip encoder for " + location + " is behind, " + droppedFrames + " frames dropped from clip");
+        }
+        encoder.execute(this::closeClip);
+    }
+
+    private void openClip(String fileName) {
+        Path directory = Paths.get(Config.IMAGE_OUTPUT_DIRECTORY);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            LOG.warn("Unable to create image output directory: " + e);
+        }
+        clipPath = directory.resolve(fileName);
+        // The writer is opened on the first frame, once the frame size is known
+        writer = null;
+        clipFrames = 0;
+    }
+
+    private void writeFrame(PipelineFrame clipFrame) {
+        try {
+            Mat frame = clipFrame.getMat();
+            if (frame.channels() == 1) {
+                Imgproc.cvtColor(frame, colorFrame, Imgproc.COLOR_GRAY2BGR);
+                frame = colorFrame;
+            }
+            if (writer == null && clipPath != null) {
+                String fourcc = Config.CLIP_FOURCC;
+                writer = new VideoWriter(clipPath.toString(), VideoWriter.fourcc(fourcc.charAt(0), fourcc.charAt(1),
+                        fourcc.charAt(2), fourcc.charAt(3)), framesPerSecond, frame.size(), true);
+                if (!writer.isOpened()) {
+                    LOG.warn("Unable to open clip " + clipPath);
+                    writer.release();
+                    writer = null;
+                    clipPath = null;
+                }
+                clipStartNanos = clipFrame.getFrameTimeNanos();
+            }
+            if (writer != null) {
+                // The frame shows until the next one, so it fills every clip frame up to the one it was captured in
+                long frameIndex = Math.round((clipFrame.getFrameTimeNanos() - clipStartNanos) * framesPerSecond / 1e9);
+                for (; clipFrames <= frameIndex; clipFrames++) {
+                    writer.write(frame);
+                }
+            }
+        } catch (Exception e) {
+            LOG.warn("Exception while writing clip " + clipPath + ": " + e);
+        } finally {
+            framePool.release(clipFrame);
+        }
+    }
+
+    private void closeClip() {
+        if (writer != null) {
+            writer.release();
+            writer = null;
+            LOG.info("Saved clip " + clipPath);
+        }
+        clipPath = null;
+    }
+}
@@ -0,0 +1,70 @@
+package com.loganrouleau.traintracker.model;
+
+/**
+ * A train matched by the {@link EventCorrelator} between its detection entering the platform at one region and its
+ * detection leaving at the next region in its direction of travel, or a detection which could not be matched.
+ */
+public class CorrelatedTrain {
+    /**
+     * Whether both ends of the train's passage were seen.
+     */
+    public enum Status {
+        PAIRED, UNMATCHED_ENTRY, UNMATCHED_EXIT
+    }
+
+    private final Status status;
+    private final String direction;
+    private final String entryLocation;
+    private final String entryTimestamp;
+    private final String exitLocation;
+    private final String exitTimestamp;
+    private final long transitMillis;
+
+    CorrelatedTrain(Status status, String direction, String entryLocation, String entryTimestamp, String exitLocation,
+                    String exitTimestamp, long transitMillis) {
+        this.status = status;
+        this.direction = direction;
+        this.entryLocation = entryLocation;
+        this.entryTimestamp = entryTimestamp;
+        this.exitLocation = exitLocation;
+        this.exitTimestamp = exitTimestamp;
+        this.transitMillis = transitMillis;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getDirection() {
+        return direction;
+    }
+
+    /**
+     * The region the train entered through, or null if no entry was matched.
+     */
+    public String getEntryLocation() {
+        return entryLocation;
+    }
+
+    public String getEntryTimestamp() {
+        return entryTimestamp;
+    }
+
+    /**
+     * The region the train left through, or null if no exit was matched.
+     */
+    public String getExitLocation() {
+        return exitLocation;
+    }
+
+    public String getExitTimestamp() {
+        return exitTimestamp;
+    }
+
+    /**
+     * The time from the train first appearing at the entry to first appearing at the exit, or -1 if unmatched.
+     */
+    public long getTransitMillis() {
+        return transitMillis;
+    }
+}
@@ -0,0 +1,24 @@
+package com.loganrouleau.traintracker.model;
+
+/**
+ * How a subscriber's mailbox in {@link DetectorEvents} handles events arriving faster than the subscriber takes them.
+ * The detector publishing the events never waits, whatever the policy.
+ */
+public enum DeliveryPolicy {
+    /**
+     * Keep only the most recent undelivered event, replacing any older one. For views which only show current state.
+     */
+    LATEST_ONLY,
+    /**
+     * Deliver every event in order. The mailbox is bounded, and an event which arrives when it is full is dropped,
+     * counted and logged, so a stalled subscriber cannot exhaust memory.
+     */
+    LOSSLESS,
+    /**
+     * Deliver the latest event at most once per sample interval. An event arriving within the interval after the last
+     * delivery is held, replacing any held before it, and delivered when the interval ends, so the last state is never
+     * lost. Otherwise behave as {@link #LATEST_ONLY}. For consumers such as network clients which only need a periodic
+     * update.
+     */
+    SAMPLED
+}
@@ -0,0 +1,66 @@
+package com.loganrouleau.traintracker.model;
+
+/**
+ * Published by a {@link MotionDetector} when a tracked train has left its region, with the same estimates as are
+ * written to the result file.
+ */
+public final class DetectionEnded {
+    private final String location;
+    private final String timestamp;
+    private final long frameTimeMillis;
+    private final String direction;
+    private final double speedPixelsPerSecond;
+    private final double lengthPixels;
+    private final long dwellMillis;
+
+    public DetectionEnded(String location, String timestamp, long frameTimeMillis, String direction,
+                          double speedPixelsPerSecond, double lengthPixels, long dwellMillis) {
+        this.location = location;
+        this.timestamp = timestamp;
+        this.frameTimeMillis = frameTimeMillis;
+        this.direction = direction;
+        this.speedPixelsPerSecond = speedPixelsPerSecond;
+        this.lengthPixels = lengthPixels;
+        this.dwellMillis = dwellMillis;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * The time the train left, in the configured timestamp format.
+     */
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * The wall clock time the train left, in milliseconds since the epoch.
+     */
+    public long getFrameTimeMillis() {
+        return frameTimeMillis;
+    }
+
+    /**
+     * "East" or "West".
+     */
+    public String getDirection() {
+        return direction;
+    }
+
+    /**
+     * The mean speed across the region, or NaN if it could not be measured.
+     */
+    public double getSpeedPixelsPerSecond() {
+        return speedPixelsPerSecond;
+    }
+
+    public double getLengthPixels() {
+        return lengthPixels;
+    }
+
+    public long getDwellMillis() {
+        return dwellMillis;
+    }
+}
@@ -0,0 +1,118 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * Splits the work of a {@link MotionDetector} into detection and rendering stages, each on its own thread and linked by
+ * bounded queues, with persistence handed off to the {@link ClipRecorder} or {@link SnapshotEncoder}. The capture
+ * thread only copies the detector's region into a pooled frame and queues it, so a slow render or disk write can no
+ * longer delay the next capture or the detection that follows it.
+ */
+class DetectionPipeline {
+    private static final Logger LOG = LogManager.getLogger(DetectionPipeline.class);
+    // One frame being filled by the previous stage and one being handled, in addition to the queued frames
+    private static final int FRAMES_OUTSIDE_QUEUE = 2;
+
+    private final MotionDetector detector;
+    private final FramePool detectPool;
+    private final FramePool renderPool;
+    private final PipelineStage<PipelineFrame> detectStage;
+    private final PipelineStage<PipelineFrame> renderStage;
+
+    DetectionPipeline(MotionDetector detector, String location) {
+        this.detector = detector;
+        detectPool = new FramePool(Config.PIPELINE_DETECT_QUEUE_SIZE + FRAMES_OUTSIDE_QUEUE);
+        renderPool = new FramePool(Config.PIPELINE_RENDER_QUEUE_SIZE + FRAMES_OUTSIDE_QUEUE);
+        detectStage = new PipelineStage<>(location + "-detect", Config.PIPELINE_DETECT_QUEUE_SIZE,
+                Config.PIPELINE_DETECT_OVERFLOW_POLICY, this::detect, detectPool::release);
+        renderStage = new PipelineStage<>(location + "-render", Config.PIPELINE_RENDER_QUEUE_SIZE,
+                Config.PIPELINE_RENDER_OVERFLOW_POLICY, this::render, renderPool::release);
+    }
+
+    void start() {
+        renderStage.start();
+        detectStage.start();
+    }
+
+    /**
+     * Stop every stage, upstream first so that nothing is queued to a stage after it has stopped, then free the pooled
+     * frames.
+     */
+    void stop() {
+        detectStage.stop();
+        renderStage.stop();
+        LOG.info(detectStage + "; " + renderStage);
+
+        detectPool.releaseAll();
+        renderPool.releaseAll();
+    }
+
+    int getQueuedFrames() {
+        return detectStage.getQueueDepth() + renderStage.getQueueDepth();
+    }
+
+    long getDroppedFrames() {
+        return detectStage.getDroppedCount() + renderStage.getDroppedCount();
+    }
+
+    /**
+     * Copy the detector's region of a captured frame and queue it for detection. Called on the capture thread.
+     */
+    void submit(Mat capturedFrame, long frameSequence, long frameTimeNanos, long frameTimeMillis) {
+        PipelineFrame frame = acquire(detectPool, detectStage);
+        if (frame == null) {
+            return;
+        }
+        detector.copyRoi(capturedFrame, frame.getMat());
+        frame.setFrameTime(frameSequence, frameTimeNanos, frameTimeMillis);
+        detectStage.offer(frame);
+    }
+
+    private void detect(PipelineFrame frame) {
+        Mat currFrame = frame.getMat();
+        if (detector.detectMotion(currFrame, frame.getFrameSequence(), frame.getFrameTimeNanos(),
+                frame.getFrameTimeMillis())) {
+            boolean trainDetected = detector.isTrainDetected();
+            double diffFrameIntensitySum = detector.getDiffFrameIntensitySum();
+            Point centroid = detector.getCentroid();
+
+            PipelineFrame renderFrame = acquire(renderPool, renderStage);
+            if (renderFrame != null) {
+                detector.getDiffFrame().copyTo(renderFrame.getMat());
+                renderFrame.setFrameTime(frame.getFrameSequence(), frame.getFrameTimeNanos(),
+                        frame.getFrameTimeMillis());
+                renderFrame.setResult(trainDetected, diffFrameIntensitySum, centroid.x, centroid.y);
+                renderStage.offer(renderFrame);
+            }
+        }
+        detector.persistFrame(currFrame, frame.getFrameTimeNanos(), frame.getFrameTimeMillis());
+
+        // Keep the pixels as the next previous frame, and return the old previous frame's Mat to the pool instead
+        frame.swapMat(detector.exchangePrevFrame(currFrame));
+    }
+
+    private void render(PipelineFrame frame) {
+        detector.renderFrame(frame.getMat(), frame.getCentroidX(), frame.getCentroidY(), frame.isTrainDetected(),
+                frame.getDiffFrameIntensitySum(), frame.getFrameSequence(), frame.getFrameTimeNanos());
+    }
+
+    /**
+     * Take a frame to fill for a stage. Only a stage which never drops waits for a frame to become free.
+     */
+    private static PipelineFrame acquire(FramePool pool, PipelineStage<PipelineFrame> stage) {
+        try {
+            PipelineFrame frame = pool.acquire(stage.getOverflowPolicy() == OverflowPolicy.BLOCK);
+            if (frame == null) {
+                stage.countDropped();
+            }
+            return frame;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
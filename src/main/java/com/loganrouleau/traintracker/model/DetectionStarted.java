@@ -0,0 +1,32 @@
+package com.loganrouleau.traintracker.model;
+
+/**
+ * Published by a {@link MotionDetector} on the first frame in which it sees motion above the detection tolerance,
+ * before it knows whether the motion is a train.
+ */
+public final class DetectionStarted {
+    private final String location;
+    private final long frameSequence;
+    private final long frameTimeMillis;
+
+    public DetectionStarted(String location, long frameSequence, long frameTimeMillis) {
+        this.location = location;
+        this.frameSequence = frameSequence;
+        this.frameTimeMillis = frameTimeMillis;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public long getFrameSequence() {
+        return frameSequence;
+    }
+
+    /**
+     * The wall clock time of the frame, in milliseconds since the epoch.
+     */
+    public long getFrameTimeMillis() {
+        return frameTimeMillis;
+    }
+}
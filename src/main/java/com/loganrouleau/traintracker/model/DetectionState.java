@@ -0,0 +1,61 @@
+package com.loganrouleau.traintracker.model;
+
+/**
+ * The detection state machine for one region. A train is tracked once motion is seen for three frames in a row, and
+ * its direction, speed and dwell time are reported once motion has died away again. Not thread safe.
+ */
+class DetectionState {
+    private boolean trainDetected = false;
+    private boolean trackingCentroids = false;
+    private final CentroidTrack centroidTrack = new CentroidTrack();
+    private int trainDetectedFrames = 0;
+
+    /**
+     * Advance the state with one frame's intensity sum and centroid. Only the time between frames is used, so frame
+     * times need only be monotonic.
+     *
+     * @return the estimates for the train if one was being tracked and has just left, otherwise null
+     */
+    TrainEvent update(double diffFrameIntensitySum, double detectionTolerance, double centroidX,
+                      long frameTimeMillis) {
+        TrainEvent event = null;
+        if (diffFrameIntensitySum > detectionTolerance) {
+            trainDetected = true;
+            trainDetectedFrames = Math.min(trainDetectedFrames + 1, 3);
+            if (!trackingCentroids && trainDetectedFrames == 3) {
+                trackingCentroids = true;
+            }
+        } else {
+            trainDetected = false;
+            trainDetectedFrames = Math.max(trainDetectedFrames - 1, 0);
+            if (trackingCentroids && trainDetectedFrames == 0) {
+                event = centroidTrack.finish();
+                trackingCentroids = false;
+            }
+        }
+
+        if (trackingCentroids) {
+            centroidTrack.add(centroidX, frameTimeMillis);
+        }
+        return event;
+    }
+
+    /**
+     * Whether the state has fully settled with no motion, so a frame without motion would not change it.
+     */
+    boolean isIdle() {
+        return !trainDetected && !trackingCentroids && trainDetectedFrames == 0;
+    }
+
+    boolean isTrainDetected() {
+        return trainDetected;
+    }
+
+    boolean isTrackingCentroids() {
+        return trackingCentroids;
+    }
+
+    int getTrainDetectedFrames() {
+        return trainDetectedFrames;
+    }
+}
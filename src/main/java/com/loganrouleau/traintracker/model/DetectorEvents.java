@@ -0,0 +1,256 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * The events published by one {@link MotionDetector}: {@link FrameData} for every processed frame, and
+ * {@link DetectionStarted} and {@link DetectionEnded} around each detection. Subscribers choose the event type they
+ * want and a {@link DeliveryPolicy}.
+ * <p>
+ * Each subscriber has its own bounded mailbox. Publishing only puts the event in the mailboxes, and never waits on a
+ * subscriber. A mailbox is drained in order on a shared pool of daemon threads, by at most one thread at a time, so a
+ * handler is never called concurrently with itself and a slow handler only delays its own events. Thread safe.
+ */
+public class DetectorEvents {
+    private static final Logger LOG = LogManager.getLogger(DetectorEvents.class);
+    private static final AtomicInteger DELIVERY_THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService DELIVERY_POOL = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "detector-events-" + DELIVERY_THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Releases events held by sampled mailboxes at the end of their interval
+    private static final ScheduledExecutorService SAMPLE_TIMER = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "detector-events-sampler");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final List<Mailbox<?>> mailboxes = new CopyOnWriteArrayList<>();
+
+    /**
+     * Subscribe to events of the given type, with the configured mailbox size and sample interval.
+     */
+    public <E> Subscription subscribe(Class<E> type, DeliveryPolicy policy, Consumer<? super E> handler) {
+        return subscribe(type, policy, Config.EVENT_MAILBOX_SIZE, Config.EVENT_SAMPLE_INTERVAL_MILLIS, handler);
+    }
+
+    /**
+     * Subscribe to events of the given type. Handlers run on a delivery thread, never the detector's.
+     *
+     * @param capacity             the most undelivered events a {@link DeliveryPolicy#LOSSLESS} mailbox holds
+     * @param sampleIntervalMillis the least time between events delivered with {@link DeliveryPolicy#SAMPLED}
+     */
+    public <E> Subscription subscribe(Class<E> type, DeliveryPolicy policy, int capacity, long sampleIntervalMillis,
+                                      Consumer<? super E> handler) {
+        Mailbox<E> mailbox = new Mailbox<>(type, policy, Math.max(1, capacity),
+                TimeUnit.MILLISECONDS.toNanos(sampleIntervalMillis), handler);
+        mailboxes.add(mailbox);
+        return mailbox;
+    }
+
+    /**
+     * Whether anything is subscribed to events of the given type, so a publisher can skip building an event nobody
+     * receives.
+     */
+    boolean hasSubscribers(Class<?> type) {
+        for (Mailbox<?> mailbox : mailboxes) {
+            if (mailbox.type.isAssignableFrom(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Put an event in the mailbox of every subscriber to its type. Called on a detector thread.
+     */
+    void publish(Object event) {
+        for (Mailbox<?> mailbox : mailboxes) {
+            if (mailbox.type.isInstance(event)) {
+                mailbox.offer(event);
+            }
+        }
+    }
+
+    /**
+     * A subscriber's registration.
+     */
+    public interface Subscription {
+        /**
+         * Stop delivering events. Events already being delivered may still arrive.
+         */
+        void cancel();
+
+        /**
+         * The number of events this subscriber did not receive because of its delivery policy.
+         */
+        long getDroppedEvents();
+    }
+
+    private final class Mailbox<E> implements Subscription {
+        private final Class<E> type;
+        private final DeliveryPolicy policy;
+        private final int capacity;
+        private final long sampleIntervalNanos;
+        private final Consumer<? super E> handler;
+
+        // Guarded by this
+        private final ArrayDeque<E> queue = new ArrayDeque<>();
+        private boolean draining = false;
+        private boolean cancelled = false;
+        private boolean sampled = false;
+        private long lastSampleNanos;
+        private E heldSample;
+        private boolean sampleScheduled = false;
+        private long droppedEvents = 0;
+
+        private Mailbox(Class<E> type, DeliveryPolicy policy, int capacity, long sampleIntervalNanos,
+                        Consumer<? super E> handler) {
+            this.type = type;
+            this.policy = policy;
+            this.capacity = capacity;
+            this.sampleIntervalNanos = sampleIntervalNanos;
+            this.handler = handler;
+        }
+
+        private void offer(Object event) {
+            E typedEvent = type.cast(event);
+            synchronized (this) {
+                if (cancelled || !accept(typedEvent) || draining) {
+                    return;
+                }
+                draining = true;
+            }
+            DELIVERY_POOL.execute(this::drain);
+        }
+
+        /**
+         * Apply the delivery policy to a new event.
+         *
+         * @return false if the event was not queued for delivery now
+         */
+        private boolean accept(E event) {
+            if (policy == DeliveryPolicy.LOSSLESS) {
+                if (queue.size() >= capacity) {
+                    if (droppedEvents++ == 0) {
+                        LOG.warn("Lossless subscriber to " + type.getSimpleName() + " is " + capacity
+                                + " events behind, dropping events");
+                    }
+                    return false;
+                }
+                queue.add(event);
+                return true;
+            }
+            if (policy == DeliveryPolicy.SAMPLED) {
+                long now = System.nanoTime();
+                long remainingNanos = lastSampleNanos + sampleIntervalNanos - now;
+                if (sampled && remainingNanos > 0) {
+                    holdSample(event, remainingNanos);
+                    return false;
+                }
+                if (heldSample != null) {
+                    // The timer is late, and this event is newer
+                    heldSample = null;
+                    droppedEvents++;
+                }
+                sampled = true;
+                lastSampleNanos = now;
+            }
+            replaceLatest(event);
+            return true;
+        }
+
+        /**
+         * Keep only the newest event for delivery, dropping any older one not yet delivered.
+         */
+        private void replaceLatest(E event) {
+            if (!queue.isEmpty()) {
+                queue.clear();
+                droppedEvents++;
+            }
+            queue.add(event);
+        }
+
+        /**
+         * Hold an event which arrived within the sample interval, replacing any held before it, until the interval
+         * ends.
+         */
+        private void holdSample(E event, long remainingNanos) {
+            if (heldSample != null) {
+                droppedEvents++;
+            }
+            heldSample = event;
+            if (!sampleScheduled) {
+                sampleScheduled = true;
+                SAMPLE_TIMER.schedule(this::releaseSample, remainingNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Deliver the event held at the end of the sample interval, if any.
+         */
+        private void releaseSample() {
+            synchronized (this) {
+                sampleScheduled = false;
+                if (cancelled || heldSample == null) {
+                    return;
+                }
+                lastSampleNanos = System.nanoTime();
+                replaceLatest(heldSample);
+                heldSample = null;
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            DELIVERY_POOL.execute(this::drain);
+        }
+
+        private void drain() {
+            while (true) {
+                E event;
+                synchronized (this) {
+                    event = cancelled ? null : queue.poll();
+                    if (event == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    handler.accept(event);
+                } catch (Exception e) {
+                    LOG.warn("Exception in " + type.getSimpleName() + " subscriber: " + e);
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            mailboxes.remove(this);
+            synchronized (this) {
+                cancelled = true;
+                queue.clear();
+                heldSample = null;
+            }
+        }
+
+        @Override
+        public synchronized long getDroppedEvents() {
+            return droppedEvents;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.loganrouleau.traintracker.model;
+
+import org.opencv.core.Rect;
+
+/**
+ * The settings a {@link MotionDetector} runs with, as an immutable value. A detector reads its settings once per frame,
+ * so a change made from another thread takes effect as a whole on the next frame, never halfway through one. The
+ * bounding box only takes effect when the detector next starts capturing.
+ */
+public final class DetectorSettings {
+    public static final DetectorSettings DEFAULT = new DetectorSettings(0, 0, 0, 0, 0, 0, false);
+
+    private final double threshold;
+    private final double detectionTolerance;
+    private final int x1;
+    private final int y1;
+    private final int x2;
+    private final int y2;
+    private final boolean calibrating;
+
+    private DetectorSettings(double threshold, double detectionTolerance, int x1, int y1, int x2, int y2,
+                             boolean calibrating) {
+        this.threshold = threshold;
+        this.detectionTolerance = detectionTolerance;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+        this.calibrating = calibrating;
+    }
+
+    public DetectorSettings withThreshold(double threshold) {
+        return new DetectorSettings(threshold, detectionTolerance, x1, y1, x2, y2, calibrating);
+    }
+
+    public DetectorSettings withDetectionTolerance(double detectionTolerance) {
+        return new DetectorSettings(threshold, detectionTolerance, x1, y1, x2, y2, calibrating);
+    }
+
+    public DetectorSettings withBoundingBox(int x1, int y1, int x2, int y2) {
+        return new DetectorSettings(threshold, detectionTolerance, x1, y1, x2, y2, calibrating);
+    }
+
+    public DetectorSettings withCalibrating(boolean calibrating) {
+        return new DetectorSettings(threshold, detectionTolerance, x1, y1, x2, y2, calibrating);
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public double getDetectionTolerance() {
+        return detectionTolerance;
+    }
+
+    /**
+     * A new Rect spanning the bounding box corners, in either order.
+     */
+    public Rect getBoundingBox() {
+        return new Rect(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1));
+    }
+
+    public boolean isCalibrating() {
+        return calibrating;
+    }
+
+    @Override
+    public String toString() {
+        return "DetectorSettings{threshold=" + threshold + ", detectionTolerance=" + detectionTolerance + ", box=("
+                + x1 + ", " + y1 + ", " + x2 + ", " + y2 + "), calibrating=" + calibrating + "}";
+    }
+}
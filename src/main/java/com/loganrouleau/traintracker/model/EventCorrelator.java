@@ -0,0 +1,185 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches each train seen entering the platform at one region with the same train leaving at the next region in its
+ * direction of travel, as detections arrive. The regions are ordered from west to east, so a train heading east
+ * enters through a region and leaves through the region after it, and one heading west the region before it. A
+ * detection matches the oldest unmatched detection in the neighbouring region with the same direction which started no
+ * more than the correlation window earlier.
+ * <p>
+ * Detections are held until the latest detection time has moved a window past them, so a detection arriving slightly
+ * late from another detector thread is still matched. Anything that expires without a match on either side is emitted
+ * as unmatched. Paired and unmatched trains are written to the trains csv by the {@link ResultWriter}. Thread safe.
+ * <p>
+ * The live detectors share one correlator. Separate recordings replayed side by side each need their own, so that
+ * their detections are never matched with each other's.
+ */
+public class EventCorrelator {
+    private static final Logger LOG = LogManager.getLogger(EventCorrelator.class);
+    private static final EventCorrelator eventCorrelator = new EventCorrelator();
+
+    private final List<Detection> pending = new ArrayList<>();
+    private Map<String, Integer> regionIndexes = Collections.emptyMap();
+    private int regionCount;
+    private long watermarkMillis = Long.MIN_VALUE;
+
+    public EventCorrelator() {
+    }
+
+    /**
+     * The correlator shared by the live detectors.
+     */
+    public static EventCorrelator getInstance() {
+        return eventCorrelator;
+    }
+
+    /**
+     * Set the regions to correlate, ordered from west to east. Anything pending for the previous regions is flushed.
+     * With fewer than two regions there is nothing to correlate, and detections are ignored.
+     */
+    public synchronized void setRegions(List<String> locationsWestToEast) {
+        flush();
+        Map<String, Integer> indexes = new HashMap<>();
+        for (String location : locationsWestToEast) {
+            indexes.putIfAbsent(location, indexes.size());
+        }
+        regionIndexes = indexes;
+        regionCount = indexes.size();
+    }
+
+    /**
+     * Correlate a detection which ended at the given time.
+     */
+    synchronized void onEvent(String location, String timestamp, TrainEvent event, long endMillis) {
+        Integer index = regionIndexes.get(location);
+        if (regionCount < 2 || index == null) {
+            return;
+        }
+        Detection detection = new Detection(location, index, timestamp, event.getDirection(),
+                endMillis - event.getDwellMillis(), endMillis);
+
+        Detection entry = findUnmatched(detection.index - detection.step(), detection.direction, true,
+                detection.startMillis - Config.CORRELATION_WINDOW_MILLIS, detection.startMillis);
+        if (entry != null) {
+            pair(entry, detection);
+        }
+        Detection lateExit = findUnmatched(detection.index + detection.step(), detection.direction, false,
+                detection.startMillis, detection.startMillis + Config.CORRELATION_WINDOW_MILLIS);
+        if (lateExit != null) {
+            pair(detection, lateExit);
+        }
+        pending.add(detection);
+
+        watermarkMillis = Math.max(watermarkMillis, endMillis);
+        expire(watermarkMillis - Config.CORRELATION_WINDOW_MILLIS);
+    }
+
+    /**
+     * Emit everything still pending without waiting for the window to pass, such as on shutdown.
+     */
+    public synchronized void flush() {
+        expire(Long.MAX_VALUE);
+        watermarkMillis = Long.MIN_VALUE;
+    }
+
+    /**
+     * Find the oldest pending detection in a region and direction that has not yet been matched on the given side and
+     * started within the given times.
+     */
+    private Detection findUnmatched(int index, String direction, boolean asEntry, long fromMillis, long toMillis) {
+        if (index < 0 || index >= regionCount) {
+            return null;
+        }
+        for (Detection candidate : pending) {
+            if (candidate.index == index && candidate.direction.equals(direction)
+                    && !(asEntry ? candidate.matchedExit : candidate.matchedEntry)
+                    && candidate.startMillis >= fromMillis && candidate.startMillis <= toMillis) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private void pair(Detection entry, Detection exit) {
+        entry.matchedExit = true;
+        exit.matchedEntry = true;
+        emit(new CorrelatedTrain(CorrelatedTrain.Status.PAIRED, entry.direction, entry.location, entry.timestamp,
+                exit.location, exit.timestamp, exit.startMillis - entry.startMillis));
+    }
+
+    private void expire(long beforeMillis) {
+        Iterator<Detection> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            Detection detection = iterator.next();
+            if (detection.endMillis >= beforeMillis) {
+                continue;
+            }
+            iterator.remove();
+            if (detection.matchedEntry || detection.matchedExit) {
+                continue;
+            }
+            // A detection with a region ahead of it was the train entering, otherwise it was the train leaving
+            int next = detection.index + detection.step();
+            if (next >= 0 && next < regionCount) {
+                emit(new CorrelatedTrain(CorrelatedTrain.Status.UNMATCHED_ENTRY, detection.direction,
+                        detection.location, detection.timestamp, null, null, -1));
+            } else {
+                emit(new CorrelatedTrain(CorrelatedTrain.Status.UNMATCHED_EXIT, detection.direction, null, null,
+                        detection.location, detection.timestamp, -1));
+            }
+        }
+    }
+
+    private void emit(CorrelatedTrain train) {
+        if (train.getStatus() == CorrelatedTrain.Status.PAIRED) {
+            LOG.info(String.format("Train heading %s entered at %s and left at %s after %.1f s", train.getDirection(),
+                    train.getEntryLocation(), train.getExitLocation(), train.getTransitMillis() / 1000.0));
+        } else if (train.getStatus() == CorrelatedTrain.Status.UNMATCHED_ENTRY) {
+            LOG.info("Train heading " + train.getDirection() + " entered at " + train.getEntryLocation()
+                    + " with no matching exit");
+        } else {
+            LOG.info("Train heading " + train.getDirection() + " left at " + train.getExitLocation()
+                    + " with no matching entry");
+        }
+        ResultWriter.getInstance().writeTrainLine(train);
+    }
+
+    private static class Detection {
+        private final String location;
+        private final int index;
+        private final String timestamp;
+        private final String direction;
+        private final long startMillis;
+        private final long endMillis;
+        private boolean matchedEntry;
+        private boolean matchedExit;
+
+        private Detection(String location, int index, String timestamp, String direction, long startMillis,
+                          long endMillis) {
+            this.location = location;
+            this.index = index;
+            this.timestamp = timestamp;
+            this.direction = direction;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+
+        /**
+         * The change in region index in this detection's direction of travel.
+         */
+        private int step() {
+            return "East".equals(direction) ? 1 : -1;
+        }
+    }
+}
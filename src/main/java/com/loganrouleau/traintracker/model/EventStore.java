@@ -0,0 +1,420 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An append-only store of every train detection, as fixed width binary records in a memory-mapped file, for queries
+ * across any number of runs without parsing result csv files. The file is mapped in chunks of {@value #CHUNK_RECORDS}
+ * records as it grows, and appending is a handful of absolute puts. Thread safe.
+ * <p>
+ * Detections arrive roughly in time order, so the store keeps a sparse in-memory index of the earliest and latest
+ * timestamp in each block of {@value #INDEX_INTERVAL} records, rebuilt with one pass over the timestamps when the file
+ * is opened. A time range query only reads the blocks that overlap it, however many records are stored.
+ * <p>
+ * The file starts with a {@value #HEADER_BYTES} byte header of magic, version, record size and the number of records,
+ * followed by the records. All values are little endian. Speed and length are in pixels, or NaN if not measured.
+ */
+public class EventStore {
+    private static final Logger LOG = LogManager.getLogger(EventStore.class);
+
+    public static final int MAGIC = 0x54524B45;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 64;
+    public static final int RECORD_BYTES = 64;
+
+    public static final int HEADER_MAGIC_OFFSET = 0;
+    public static final int HEADER_VERSION_OFFSET = 4;
+    public static final int HEADER_RECORD_BYTES_OFFSET = 8;
+    public static final int HEADER_COUNT_OFFSET = 16;
+
+    public static final int TIMESTAMP_MILLIS_OFFSET = 0;
+    public static final int THRESHOLD_OFFSET = 8;
+    public static final int TOLERANCE_OFFSET = 12;
+    public static final int SPEED_OFFSET = 16;
+    public static final int LENGTH_OFFSET = 20;
+    public static final int DWELL_MILLIS_OFFSET = 24;
+    public static final int DIRECTION_OFFSET = 28;
+    public static final int LOCATION_OFFSET = 32;
+    public static final int LOCATION_BYTES = 32;
+
+    public static final int DIRECTION_UNKNOWN = 0;
+    public static final int DIRECTION_EAST = 1;
+    public static final int DIRECTION_WEST = 2;
+    private static final String[] DIRECTION_NAMES = {"", "East", "West"};
+
+    public static final int INDEX_INTERVAL = 1024;
+    public static final int CHUNK_RECORDS = 1 << 16;
+
+    private static final String CSV_HEADER = "Timestamp,Location,Threshold Slider Value,"
+            + "Detection Tolerance Slider Value,Direction,Speed,Length,Dwell Seconds";
+
+    private static EventStore shared;
+    private static boolean sharedOpened;
+
+    private final Path path;
+    private final boolean readOnly;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private final EventRecord cursor = new EventRecord();
+    private long count;
+    private long[] blockMinMillis = new long[16];
+    private long[] blockMaxMillis = new long[16];
+
+    private EventStore(Path path, boolean readOnly) throws IOException {
+        this.path = path;
+        this.readOnly = readOnly;
+        if (readOnly) {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        } else {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        }
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (header.getInt(HEADER_MAGIC_OFFSET) == 0 && header.getLong(HEADER_COUNT_OFFSET) == 0 && !readOnly) {
+            header.putInt(HEADER_MAGIC_OFFSET, MAGIC);
+            header.putInt(HEADER_VERSION_OFFSET, VERSION);
+            header.putInt(HEADER_RECORD_BYTES_OFFSET, RECORD_BYTES);
+        } else if (header.getInt(HEADER_MAGIC_OFFSET) != MAGIC || header.getInt(HEADER_VERSION_OFFSET) != VERSION) {
+            channel.close();
+            throw new IOException(path + " is not a version " + VERSION + " event store");
+        }
+        count = header.getLong(HEADER_COUNT_OFFSET);
+        buildIndex();
+    }
+
+    /**
+     * Open a store for appending, creating it if it does not exist.
+     */
+    public static EventStore open(Path path) throws IOException {
+        return new EventStore(path, false);
+    }
+
+    /**
+     * Open an existing store for queries only. Records appended by another process after opening are not seen.
+     */
+    public static EventStore openReadOnly(Path path) throws IOException {
+        return new EventStore(path, true);
+    }
+
+    /**
+     * The configured store shared by every detector, opened on first use, or null if it is disabled or could not be
+     * opened.
+     */
+    static synchronized EventStore getShared() {
+        if (!sharedOpened && Config.EVENT_STORE_ENABLED) {
+            sharedOpened = true;
+            Path file = Paths.get(Config.EVENT_STORE_FILE);
+            try {
+                shared = open(file);
+            } catch (IOException e) {
+                LOG.warn("Unable to open event store " + file + ", continuing without it: " + e);
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Close the shared store, such as on shutdown. A later detection opens it again.
+     */
+    public static synchronized void closeShared() {
+        if (shared != null) {
+            shared.close();
+            shared = null;
+        }
+        sharedOpened = false;
+    }
+
+    /**
+     * Append a detection which ended at the given time.
+     */
+    public synchronized void append(long timestampMillis, String location, double threshold, double tolerance,
+                                    String direction, double speedPixelsPerSecond, double lengthPixels,
+                                    long dwellMillis) throws IOException {
+        if (readOnly) {
+            throw new IllegalStateException(path + " is open read only");
+        }
+        MappedByteBuffer chunk = chunk(count / CHUNK_RECORDS);
+        int offset = (int) (count % CHUNK_RECORDS) * RECORD_BYTES;
+        chunk.putLong(offset + TIMESTAMP_MILLIS_OFFSET, timestampMillis);
+        chunk.putFloat(offset + THRESHOLD_OFFSET, (float) threshold);
+        chunk.putFloat(offset + TOLERANCE_OFFSET, (float) tolerance);
+        chunk.putFloat(offset + SPEED_OFFSET, (float) speedPixelsPerSecond);
+        chunk.putFloat(offset + LENGTH_OFFSET, (float) lengthPixels);
+        chunk.putInt(offset + DWELL_MILLIS_OFFSET, (int) Math.min(Integer.MAX_VALUE, dwellMillis));
+        chunk.put(offset + DIRECTION_OFFSET, (byte) directionCode(direction));
+        byte[] name = location.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < LOCATION_BYTES; i++) {
+            chunk.put(offset + LOCATION_OFFSET + i, i < name.length ? name[i] : 0);
+        }
+        index(count, timestampMillis);
+        count++;
+        // Written last, so a reader never treats a partially written record as complete
+        header.putLong(HEADER_COUNT_OFFSET, count);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Visit every record with a timestamp in the given range, inclusive, in the order they were appended. The record
+     * passed to the visitor is reused, and is only valid during the call.
+     *
+     * @return the number of records visited
+     */
+    public synchronized long scan(long fromMillis, long toMillis, EventVisitor visitor) throws IOException {
+        long visited = 0;
+        long blocks = (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+        for (int block = 0; block < blocks; block++) {
+            if (blockMaxMillis[block] < fromMillis || blockMinMillis[block] > toMillis) {
+                continue;
+            }
+            long end = Math.min(count, (block + 1L) * INDEX_INTERVAL);
+            for (long record = (long) block * INDEX_INTERVAL; record < end; record++) {
+                MappedByteBuffer chunk = chunk(record / CHUNK_RECORDS);
+                int offset = (int) (record % CHUNK_RECORDS) * RECORD_BYTES;
+                long timestampMillis = chunk.getLong(offset + TIMESTAMP_MILLIS_OFFSET);
+                if (timestampMillis >= fromMillis && timestampMillis <= toMillis) {
+                    cursor.position(chunk, offset);
+                    visitor.visit(cursor);
+                    visited++;
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Count the detections in the given range by local hour of day and direction, optionally at one location only.
+     *
+     * @return counts indexed by hour of day and then by direction code
+     */
+    public long[][] countByHourAndDirection(long fromMillis, long toMillis, String location, ZoneId zone)
+            throws IOException {
+        long[][] counts = new long[24][DIRECTION_NAMES.length];
+        scan(fromMillis, toMillis, record -> {
+            if (location == null || record.isAt(location)) {
+                int hour = LocalDateTime.ofInstant(Instant.ofEpochMilli(record.getTimestampMillis()), zone).getHour();
+                counts[hour][record.getDirection()]++;
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Write the detections in the given range as csv in the result file format, optionally at one location only.
+     *
+     * @return the number of records written
+     */
+    public long exportCsv(long fromMillis, long toMillis, String location, DateTimeFormatter timestampFormat,
+                          ZoneId zone, Writer out) throws IOException {
+        PrintWriter writer = new PrintWriter(out);
+        writer.println(CSV_HEADER);
+        long[] written = new long[1];
+        scan(fromMillis, toMillis, record -> {
+            if (location != null && !record.isAt(location)) {
+                return;
+            }
+            written[0]++;
+            writer.print(timestampFormat.format(Instant.ofEpochMilli(record.getTimestampMillis()).atZone(zone)));
+            writer.print(',');
+            writer.print(record.getLocation());
+            writer.print(',');
+            writer.print(Math.round(record.getThreshold()));
+            writer.print(',');
+            writer.print(Math.round(record.getTolerance()));
+            writer.print(',');
+            writer.print(record.getDirectionName());
+            writer.print(',');
+            printMeasurement(writer, record.getSpeedPixelsPerSecond());
+            writer.print(',');
+            printMeasurement(writer, record.getLengthPixels());
+            writer.print(',');
+            writer.println(String.format("%.1f", record.getDwellMillis() / 1000.0));
+        });
+        writer.flush();
+        return written[0];
+    }
+
+    public synchronized void close() {
+        try {
+            if (!readOnly) {
+                for (MappedByteBuffer chunk : chunks) {
+                    chunk.force();
+                }
+                header.force();
+            }
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to close event store " + path + ": " + e);
+        }
+    }
+
+    public static String directionName(int direction) {
+        return direction >= 0 && direction < DIRECTION_NAMES.length ? DIRECTION_NAMES[direction] : "";
+    }
+
+    private static int directionCode(String direction) {
+        for (int code = 1; code < DIRECTION_NAMES.length; code++) {
+            if (DIRECTION_NAMES[code].equals(direction)) {
+                return code;
+            }
+        }
+        return DIRECTION_UNKNOWN;
+    }
+
+    private static void printMeasurement(PrintWriter writer, double value) {
+        if (!Double.isNaN(value)) {
+            writer.print(String.format("%.1f", value));
+        }
+    }
+
+    /**
+     * Map the chunk holding the given records, growing the file if the store is writable.
+     */
+    private MappedByteBuffer chunk(long chunkIndex) throws IOException {
+        while (chunks.size() <= chunkIndex) {
+            long position = HEADER_BYTES + (long) chunks.size() * CHUNK_RECORDS * RECORD_BYTES;
+            long size = (long) CHUNK_RECORDS * RECORD_BYTES;
+            MappedByteBuffer chunk;
+            if (readOnly) {
+                chunk = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.max(0, Math.min(size, channel.size() - position)));
+            } else {
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+            }
+            chunk.order(ByteOrder.LITTLE_ENDIAN);
+            chunks.add(chunk);
+        }
+        return chunks.get((int) chunkIndex);
+    }
+
+    private void buildIndex() throws IOException {
+        for (long record = 0; record < count; record++) {
+            MappedByteBuffer chunk = chunk(record / CHUNK_RECORDS);
+            index(record, chunk.getLong((int) (record % CHUNK_RECORDS) * RECORD_BYTES + TIMESTAMP_MILLIS_OFFSET));
+        }
+    }
+
+    private void index(long record, long timestampMillis) {
+        int block = (int) (record / INDEX_INTERVAL);
+        if (block >= blockMinMillis.length) {
+            blockMinMillis = Arrays.copyOf(blockMinMillis, blockMinMillis.length * 2);
+            blockMaxMillis = Arrays.copyOf(blockMaxMillis, blockMaxMillis.length * 2);
+        }
+        if (record % INDEX_INTERVAL == 0) {
+            blockMinMillis[block] = timestampMillis;
+            blockMaxMillis[block] = timestampMillis;
+        } else {
+            blockMinMillis[block] = Math.min(blockMinMillis[block], timestampMillis);
+            blockMaxMillis[block] = Math.max(blockMaxMillis[block], timestampMillis);
+        }
+    }
+
+    /**
+     * Receives the records of a scan.
+     */
+    public interface EventVisitor {
+        void visit(EventRecord record) throws IOException;
+    }
+
+    /**
+     * A view of one stored record. Fields are read from the mapped file on each call.
+     */
+    public static final class EventRecord {
+        private MappedByteBuffer chunk;
+        private int offset;
+
+        private void position(MappedByteBuffer chunk, int offset) {
+            this.chunk = chunk;
+            this.offset = offset;
+        }
+
+        public long getTimestampMillis() {
+            return chunk.getLong(offset + TIMESTAMP_MILLIS_OFFSET);
+        }
+
+        public String getLocation() {
+            int length = 0;
+            while (length < LOCATION_BYTES && chunk.get(offset + LOCATION_OFFSET + length) != 0) {
+                length++;
+            }
+            byte[] name = new byte[length];
+            for (int i = 0; i < length; i++) {
+                name[i] = chunk.get(offset + LOCATION_OFFSET + i);
+            }
+            return new String(name, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Whether the record is at the given location, compared without decoding the stored name.
+         */
+        public boolean isAt(String location) {
+            byte[] name = location.getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(name.length, LOCATION_BYTES);
+            for (int i = 0; i < length; i++) {
+                if (chunk.get(offset + LOCATION_OFFSET + i) != name[i]) {
+                    return false;
+                }
+            }
+            return length == LOCATION_BYTES || chunk.get(offset + LOCATION_OFFSET + length) == 0;
+        }
+
+        public double getThreshold() {
+            return chunk.getFloat(offset + THRESHOLD_OFFSET);
+        }
+
+        public double getTolerance() {
+            return chunk.getFloat(offset + TOLERANCE_OFFSET);
+        }
+
+        /**
+         * One of {@link #DIRECTION_UNKNOWN}, {@link #DIRECTION_EAST} or {@link #DIRECTION_WEST}.
+         */
+        public int getDirection() {
+            return chunk.get(offset + DIRECTION_OFFSET);
+        }
+
+        public String getDirectionName() {
+            return directionName(getDirection());
+        }
+
+        public double getSpeedPixelsPerSecond() {
+            return chunk.getFloat(offset + SPEED_OFFSET);
+        }
+
+        public double getLengthPixels() {
+            return chunk.getFloat(offset + LENGTH_OFFSET);
+        }
+
+        public long getDwellMillis() {
+            return chunk.getInt(offset + DWELL_MILLIS_OFFSET);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.loganrouleau.traintracker.model;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * The preallocated OpenCV buffers used by a single {@link MotionDetector}. Every stage of the frame grabber writes into
+ * these Mats in place, so once the first frame has sized them the capture loop does no further native allocation. Not
+ * thread safe. Each buffer belongs to one stage, and only the thread running that stage may use it.
+ */
+class FrameBuffers {
+    private final Mat diffFrame = new Mat();
+    private final Mat displayFrame = new Mat();
+    private final Mat scaledDisplayFrame = new Mat();
+    private final Size scaledDisplaySize = new Size();
+    private final Point centroid = new Point();
+    private final Point scaledCentroid = new Point();
+
+    private Mat currFrame = new Mat();
+    private Mat prevFrame = new Mat();
+    private boolean prevFrameValid = false;
+
+    // A submat header over the shared gray frame, recreated only if the bounding box or the gray buffer changes
+    private Mat roiView = null;
+    private Rect roiRect = null;
+    private long roiViewDataAddr = 0;
+
+    // The full resolution region followed by any intermediate pyramid levels, when detecting at a reduced resolution
+    private Mat[] decimationFrames = new Mat[0];
+    private final Size decimatedSize = new Size();
+    private int pyramidLevels = 0;
+    private double detectionScale = 1;
+
+    Mat getCurrFrame() {
+        return currFrame;
+    }
+
+    Mat getPrevFrame() {
+        return prevFrame;
+    }
+
+    Mat getDiffFrame() {
+        return diffFrame;
+    }
+
+    Mat getDisplayFrame() {
+        return displayFrame;
+    }
+
+    Mat getScaledDisplayFrame() {
+        return scaledDisplayFrame;
+    }
+
+    Size getScaledDisplaySize() {
+        return scaledDisplaySize;
+    }
+
+    Point getCentroid() {
+        return centroid;
+    }
+
+    Point getScaledCentroid() {
+        return scaledCentroid;
+    }
+
+    boolean isPrevFrameValid(Mat currFrame) {
+        return prevFrameValid && prevFrame.rows() == currFrame.rows() && prevFrame.cols() == currFrame.cols();
+    }
+
+    void setScaledDisplaySize(double width, double height) {
+        scaledDisplaySize.width = width;
+        scaledDisplaySize.height = height;
+    }
+
+    /**
+     * Set the resolution detection runs at. Pyramid levels take precedence, each halving the resolution, otherwise the
+     * region is resized by the downscale factor. A level of 0 and a factor of 1 detect at full resolution.
+     */
+    void setDecimation(int pyramidLevels, double downscaleFactor) {
+        for (Mat frame : decimationFrames) {
+            frame.release();
+        }
+        if (pyramidLevels > 0) {
+            this.pyramidLevels = pyramidLevels;
+            detectionScale = Math.pow(0.5, pyramidLevels);
+            decimationFrames = new Mat[pyramidLevels];
+        } else if (downscaleFactor < 1) {
+            this.pyramidLevels = 0;
+            detectionScale = downscaleFactor;
+            decimationFrames = new Mat[1];
+        } else {
+            this.pyramidLevels = 0;
+            detectionScale = 1;
+            decimationFrames = new Mat[0];
+        }
+        for (int i = 0; i < decimationFrames.length; i++) {
+            decimationFrames[i] = new Mat();
+        }
+    }
+
+    /**
+     * The resolution detection runs at as a fraction of full resolution. Moments scale with it, m00 by its square.
+     */
+    double getDetectionScale() {
+        return detectionScale;
+    }
+
+    /**
+     * Map a coordinate in the detection resolution back to the full resolution region.
+     */
+    double toFullResolution(double coordinate) {
+        if (pyramidLevels > 0) {
+            // Each pyramid level keeps the even pixels of the level above, after blurring
+            return coordinate / detectionScale;
+        }
+        // An area resize averages a block of source pixels into each pixel, centered halfway across the block
+        return (coordinate + 0.5) / detectionScale - 0.5;
+    }
+
+    /**
+     * Copy the bounding box out of the frame into the given buffer, in grayscale and at the detection resolution. The
+     * copy means the previous frame only keeps the ROI alive rather than the whole full resolution capture. A color
+     * frame is cropped before it is converted, so only the pixels in the region are converted.
+     */
+    void copyRoi(Mat frame, Rect captureBox, Mat roiFrame) {
+        if (roiView == null || roiRect != captureBox || roiViewDataAddr != frame.dataAddr()) {
+            if (roiView != null) {
+                roiView.release();
+            }
+            roiView = frame.submat(captureBox);
+            roiRect = captureBox;
+            roiViewDataAddr = frame.dataAddr();
+            decimatedSize.width = Math.max(1, Math.round(captureBox.width * detectionScale));
+            decimatedSize.height = Math.max(1, Math.round(captureBox.height * detectionScale));
+        }
+
+        Mat fullResolution = decimationFrames.length == 0 ? roiFrame : decimationFrames[0];
+        if (frame.channels() == 1) {
+            roiView.copyTo(fullResolution);
+        } else {
+            Imgproc.cvtColor(roiView, fullResolution, Imgproc.COLOR_BGR2GRAY);
+        }
+
+        if (pyramidLevels > 0) {
+            for (int level = 1; level <= pyramidLevels; level++) {
+                Mat levelFrame = level == pyramidLevels ? roiFrame : decimationFrames[level];
+                Imgproc.pyrDown(decimationFrames[level - 1], levelFrame);
+            }
+        } else if (decimationFrames.length > 0) {
+            Imgproc.resize(fullResolution, roiFrame, decimatedSize, 0, 0, Imgproc.INTER_AREA);
+        }
+    }
+
+    /**
+     * Swap the current and previous frame buffers once the current frame has been fully processed.
+     */
+    void advance() {
+        currFrame = exchangePrevFrame(currFrame);
+    }
+
+    /**
+     * Make the given frame the previous frame.
+     *
+     * @return the buffer which held the previous frame
+     */
+    Mat exchangePrevFrame(Mat frame) {
+        Mat tmp = prevFrame;
+        prevFrame = frame;
+        prevFrameValid = true;
+        return tmp;
+    }
+
+    /**
+     * Forget the previous frame, so that the next capture starts without a frame to diff against.
+     */
+    void reset() {
+        prevFrameValid = false;
+    }
+
+    /**
+     * Free all native memory held by the buffers. The buffers are reallocated lazily if used again.
+     */
+    void release() {
+        if (roiView != null) {
+            roiView.release();
+            roiView = null;
+            roiRect = null;
+        }
+        for (Mat frame : decimationFrames) {
+            frame.release();
+        }
+        currFrame.release();
+        prevFrame.release();
+        diffFrame.release();
+        displayFrame.release();
+        scaledDisplayFrame.release();
+        prevFrameValid = false;
+    }
+}
@@ -1,27 +1,47 @@
 package com.loganrouleau.traintracker.model;
 
-import javafx.scene.image.Image;
-
 /**
  * A collection of metrics collected every frame by the model. This is passed to a controller to be used as desired.
+ * The frame itself is delivered separately through the detector's {@link com.loganrouleau.traintracker.FrameRenderer}.
  */
 public class FrameData {
-    private Image image;
+    private long frameSequence;
+    private long frameTimeNanos;
     private boolean trainDetected;
     private double diffFrameIntensitySum;
+    private int queuedFrames;
+    private long droppedFrames;
 
-    public FrameData(Image image) {
-        this.image = image;
+    public FrameData() {
     }
 
-    public FrameData(Image image, boolean trainDetected, double diffFrameIntensitySum) {
-        this.image = image;
+    public FrameData(long frameSequence, long frameTimeNanos, boolean trainDetected, double diffFrameIntensitySum) {
+        this.frameSequence = frameSequence;
+        this.frameTimeNanos = frameTimeNanos;
         this.trainDetected = trainDetected;
         this.diffFrameIntensitySum = diffFrameIntensitySum;
     }
 
-    public Image getImage() {
-        return image;
+    public FrameData(long frameSequence, long frameTimeNanos, boolean trainDetected, double diffFrameIntensitySum,
+                     int queuedFrames, long droppedFrames) {
+        this(frameSequence, frameTimeNanos, trainDetected, diffFrameIntensitySum);
+        this.queuedFrames = queuedFrames;
+        this.droppedFrames = droppedFrames;
+    }
+
+    /**
+     * The number of the frame read by the capture device, counting from 1 since it was created, or 0 if the data is not
+     * from a captured frame. Frames skipped by a detector show up as gaps.
+     */
+    public long getFrameSequence() {
+        return frameSequence;
+    }
+
+    /**
+     * The monotonic time at which the frame was captured, in nanoseconds. See {@link FrameSource#getFrameTimeNanos()}.
+     */
+    public long getFrameTimeNanos() {
+        return frameTimeNanos;
     }
 
     public boolean isTrainDetected() {
@@ -31,4 +51,18 @@ public class FrameData {
     public double getDiffFrameIntensitySum() {
         return diffFrameIntensitySum;
     }
-}
\ No newline at end of file
+
+    /**
+     * The number of frames waiting in the detector's pipeline queues, or 0 if it is not pipelined.
+     */
+    public int getQueuedFrames() {
+        return queuedFrames;
+    }
+
+    /**
+     * The number of frames dropped by the detector's pipeline since it started, or 0 if it is not pipelined.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+}
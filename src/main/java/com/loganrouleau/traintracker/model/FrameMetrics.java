@@ -0,0 +1,165 @@
+package com.loganrouleau.traintracker.model;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Latency histograms for each stage a frame passes through, and counters of frames and detections, for one capture
+ * device, detector or encoder. Recording is lock free and may happen from any thread. While registered, the metrics are
+ * published over JMX as a {@link FrameMetricsMXBean}.
+ */
+public class FrameMetrics implements FrameMetricsMXBean {
+    private static final Logger LOG = LogManager.getLogger(FrameMetrics.class);
+    static final String DOMAIN = "com.loganrouleau.traintracker";
+    private static final double FPS_SMOOTHING_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The stages a frame can be timed through. Each component records only the stages it runs.
+     */
+    public enum Stage {
+        READ, GRAY_CROP, DIFF_THRESHOLD, MOMENTS, RENDER, NOTIFY, PERSIST, ENCODE, WRITE
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final AtomicLong framesProcessed = new AtomicLong();
+    private final AtomicLong framesDropped = new AtomicLong();
+    private final AtomicLong eventsDetected = new AtomicLong();
+    private volatile LongSupplier droppedFrameCounter;
+
+    // Only updated by the one thread processing frames for the component
+    private volatile long lastFrameNanos;
+    private volatile double smoothedFrameIntervalNanos;
+
+    private ObjectName objectName;
+
+    public FrameMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Count a frame as processed and update the effective frame rate. Called from the one thread processing frames.
+     */
+    void frameProcessed() {
+        long now = System.nanoTime();
+        long last = lastFrameNanos;
+        if (last != 0) {
+            long interval = now - last;
+            double smoothing = Math.min(1, interval / FPS_SMOOTHING_NANOS);
+            smoothedFrameIntervalNanos = smoothedFrameIntervalNanos == 0 ? interval
+                    : smoothedFrameIntervalNanos + smoothing * (interval - smoothedFrameIntervalNanos);
+        }
+        lastFrameNanos = now;
+        framesProcessed.incrementAndGet();
+    }
+
+    void frameDropped() {
+        framesDropped.incrementAndGet();
+    }
+
+    void eventDetected() {
+        eventsDetected.incrementAndGet();
+    }
+
+    /**
+     * Include frames counted as dropped elsewhere, such as by a pipeline, in the dropped frame count.
+     */
+    void setDroppedFrameCounter(LongSupplier droppedFrameCounter) {
+        this.droppedFrameCounter = droppedFrameCounter;
+    }
+
+    @Override
+    public long getFramesProcessed() {
+        return framesProcessed.get();
+    }
+
+    @Override
+    public long getFramesDropped() {
+        LongSupplier counter = droppedFrameCounter;
+        return framesDropped.get() + (counter == null ? 0 : counter.getAsLong());
+    }
+
+    @Override
+    public long getEventsDetected() {
+        return eventsDetected.get();
+    }
+
+    @Override
+    public double getEffectiveFps() {
+        double interval = smoothedFrameIntervalNanos;
+        long sinceLastFrame = System.nanoTime() - lastFrameNanos;
+        if (interval == 0 || sinceLastFrame > FPS_SMOOTHING_NANOS + 2 * interval) {
+            // Frames have stopped arriving
+            return 0;
+        }
+        return TimeUnit.SECONDS.toNanos(1) / interval;
+    }
+
+    @Override
+    public Map<String, StageLatency> getStageLatencies() {
+        Map<String, StageLatency> latencies = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            if (histogram.getCount() > 0) {
+                latencies.put(stage.name(), new StageLatency(histogram));
+            }
+        }
+        return latencies;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        framesProcessed.set(0);
+        framesDropped.set(0);
+        eventsDetected.set(0);
+    }
+
+    /**
+     * Publish the metrics over JMX as {@code com.loganrouleau.traintracker:type=<type>,name=<name>}, replacing any
+     * metrics already registered under that name.
+     */
+    synchronized void register(String type, String name) {
+        unregister();
+        try {
+            ObjectName newName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(newName)) {
+                server.unregisterMBean(newName);
+            }
+            server.registerMBean(this, newName);
+            objectName = newName;
+        } catch (JMException e) {
+            LOG.warn("Unable to register " + type + " " + name + " metrics: " + e);
+        }
+    }
+
+    synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOG.warn("Unable to unregister " + objectName + ": " + e);
+        }
+        objectName = null;
+    }
+}
@@ -0,0 +1,29 @@
+package com.loganrouleau.traintracker.model;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a {@link FrameMetrics}, registered under the {@value FrameMetrics#DOMAIN} domain.
+ */
+public interface FrameMetricsMXBean {
+    long getFramesProcessed();
+
+    long getFramesDropped();
+
+    long getEventsDetected();
+
+    /**
+     * The rate frames are currently being processed at, smoothed over roughly the last second.
+     */
+    double getEffectiveFps();
+
+    /**
+     * The latency of each stage which has recorded at least once, keyed by stage name.
+     */
+    Map<String, StageLatency> getStageLatencies();
+
+    /**
+     * Clear the latencies and counters, for example before testing a new setting.
+     */
+    void reset();
+}
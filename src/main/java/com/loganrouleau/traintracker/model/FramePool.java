@@ -0,0 +1,57 @@
+package com.loganrouleau.traintracker.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed set of {@link PipelineFrame}s shared by the stages of one pipeline. Frames are never allocated after
+ * construction, so the pool also bounds the memory used by frames waiting in queues. Thread safe.
+ */
+class FramePool {
+    private final List<PipelineFrame> frames;
+    private final BlockingQueue<PipelineFrame> available;
+
+    FramePool(int size) {
+        frames = new ArrayList<>(size);
+        available = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            PipelineFrame frame = new PipelineFrame();
+            frames.add(frame);
+            available.add(frame);
+        }
+    }
+
+    /**
+     * Take a free frame from the pool.
+     *
+     * @param wait whether to wait for a frame to be returned if none are free
+     * @return a free frame, or null if none are free and wait is false
+     */
+    PipelineFrame acquire(boolean wait) throws InterruptedException {
+        return wait ? available.take() : available.poll();
+    }
+
+    /**
+     * Take a free frame from the pool without waiting.
+     *
+     * @return a free frame, or null if none are free
+     */
+    PipelineFrame tryAcquire() {
+        return available.poll();
+    }
+
+    void release(PipelineFrame frame) {
+        available.offer(frame);
+    }
+
+    /**
+     * Free the native memory of every frame. Only safe once no stage is using the pool.
+     */
+    void releaseAll() {
+        for (PipelineFrame frame : frames) {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when a {@link CaptureDevice} grabs its next frame, and reports how much CPU the capture uses and how quickly
+ * trains are detected, so the fixed and adaptive modes can be compared.
+ * <p>
+ * In adaptive mode frames are sampled at the idle rate while the region is empty. As soon as any detector sees motion
+ * above its pre-trigger level it requests a burst, and frames are grabbed at the full rate until no detector has
+ * requested one for the burst hold time. In fixed mode the device grabs frames at the full rate regardless, and the
+ * scheduler only keeps the statistics.
+ */
+class FrameScheduler {
+    private static final Logger LOG = LogManager.getLogger(FrameScheduler.class);
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final String name;
+    private final boolean adaptive;
+    private final long fullPeriodNanos;
+    private final long idlePeriodNanos;
+    private final long burstHoldNanos;
+    private final AtomicLong burstUntilNanos = new AtomicLong(System.nanoTime());
+    private long nextFrameNanos;
+
+    // Frame counts and report times are only touched by the capture thread
+    private long idleFrames;
+    private long burstFrames;
+    private long reportStartNanos = System.nanoTime();
+    private long reportStartCpuNanos = processCpuNanos();
+
+    // Reported by the detector threads
+    private long detections;
+    private long detectionLatencySumNanos;
+    private long detectionLatencyMaxNanos;
+
+    FrameScheduler(String name) {
+        this.name = name;
+        adaptive = Config.ADAPTIVE_SCHEDULING_ENABLED;
+        fullPeriodNanos = TimeUnit.SECONDS.toNanos(1) / Config.FRAMES_PER_SECOND;
+        idlePeriodNanos = TimeUnit.SECONDS.toNanos(1) / Config.ADAPTIVE_IDLE_FRAMES_PER_SECOND;
+        burstHoldNanos = TimeUnit.MILLISECONDS.toNanos(Config.ADAPTIVE_BURST_HOLD_MILLIS);
+    }
+
+    boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Grab frames at the full rate for at least the burst hold time from now. Called by detectors on any frame with
+     * motion above their pre-trigger level.
+     */
+    void requestBurst() {
+        long until = System.nanoTime() + burstHoldNanos;
+        burstUntilNanos.accumulateAndGet(until, Math::max);
+    }
+
+    boolean isBursting() {
+        return System.nanoTime() - burstUntilNanos.get() < 0;
+    }
+
+    /**
+     * Count a frame grabbed at the given time, and work out how long to wait before the next one. The next frame is
+     * due one period after this one was due rather than after it finished, so slow frames do not lower the rate.
+     */
+    long frameGrabbed(long grabStartNanos) {
+        boolean bursting = !adaptive || isBursting();
+        if (bursting) {
+            burstFrames++;
+        } else {
+            idleFrames++;
+        }
+        if (grabStartNanos - reportStartNanos >= REPORT_INTERVAL_NANOS) {
+            report();
+        }
+
+        long periodNanos = bursting ? fullPeriodNanos : idlePeriodNanos;
+        if (nextFrameNanos == 0 || grabStartNanos - nextFrameNanos > periodNanos) {
+            // First frame, or too far behind to catch up
+            nextFrameNanos = grabStartNanos;
+        }
+        nextFrameNanos += periodNanos;
+        return Math.max(0, nextFrameNanos - System.nanoTime());
+    }
+
+    /**
+     * Record how long a detector took to detect a train, from the last frame without motion to the frame which
+     * started tracking it.
+     */
+    synchronized void recordDetectionLatency(long latencyNanos) {
+        detections++;
+        detectionLatencySumNanos += latencyNanos;
+        detectionLatencyMaxNanos = Math.max(detectionLatencyMaxNanos, latencyNanos);
+    }
+
+    /**
+     * Log the statistics since the last report and start a new reporting interval.
+     */
+    void report() {
+        long now = System.nanoTime();
+        long cpuNanos = processCpuNanos();
+        double seconds = (now - reportStartNanos) / 1e9;
+        String cpu = cpuNanos < 0 ? "unavailable" : String.format("%.1f%% of one core",
+                100.0 * (cpuNanos - reportStartCpuNanos) / (now - reportStartNanos));
+        synchronized (this) {
+            LOG.info(String.format("%s (%s): %d idle and %d burst frames in %.0f s, %.1f fps, CPU %s, "
+                            + "%d detections with mean latency %.0f ms and max %.0f ms", name,
+                    adaptive ? "adaptive" : "fixed", idleFrames, burstFrames, seconds,
+                    (idleFrames + burstFrames) / seconds, cpu, detections,
+                    detections == 0 ? 0 : detectionLatencySumNanos / 1e6 / detections, detectionLatencyMaxNanos / 1e6));
+            detections = 0;
+            detectionLatencySumNanos = 0;
+            detectionLatencyMaxNanos = 0;
+        }
+        idleFrames = 0;
+        burstFrames = 0;
+        reportStartNanos = now;
+        reportStartCpuNanos = cpuNanos;
+    }
+
+    /**
+     * The CPU time used by the whole process, since detectors and encoders run on threads other than the capture
+     * thread, or -1 if the JVM does not report it.
+     */
+    private static long processCpuNanos() {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+        }
+        return -1;
+    }
+}
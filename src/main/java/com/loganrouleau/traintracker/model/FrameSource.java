@@ -0,0 +1,43 @@
+package com.loganrouleau.traintracker.model;
+
+import org.opencv.core.Mat;
+
+/**
+ * Somewhere a {@link CaptureDevice} can read full color frames from, either live or recorded. Implementations are not
+ * thread safe; the device only uses a source from one thread at a time.
+ */
+public interface FrameSource {
+    /**
+     * Open the source if it is not already open.
+     *
+     * @return false if the source could not be opened
+     */
+    boolean open();
+
+    boolean isOpen();
+
+    /**
+     * Read the next frame into the given Mat, reusing its memory where possible.
+     *
+     * @return false if there are no more frames or the frame could not be read
+     */
+    boolean read(Mat frame);
+
+    /**
+     * The wall clock time at which the last frame read was captured, in milliseconds since the epoch.
+     */
+    long getFrameTimeMillis();
+
+    /**
+     * A monotonic time at which the last frame read was captured, in nanoseconds. Only the difference between the
+     * times of two frames from the same source is meaningful, and unlike the wall clock time it never jumps.
+     */
+    long getFrameTimeNanos();
+
+    /**
+     * Whether frames arrive in real time, as opposed to being available as fast as they can be read.
+     */
+    boolean isLive();
+
+    void close();
+}
@@ -0,0 +1,324 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The detection stage's diff, threshold and moments as a single pass in Java, in place of three passes over the region
+ * through OpenCV. Each frame is copied out of its Mat once, then every pixel's absolute difference from the previous
+ * frame is thresholded and accumulated into the moments in the same loop. The loop is branch free and unrolled, so the
+ * JIT keeps it in registers.
+ * <p>
+ * The results match the OpenCV path for 8 bit grayscale regions: a pixel is set when its difference is above the
+ * threshold, as with {@code THRESH_BINARY}, and set pixels count as 255 in the moments. The sums are exact, where
+ * OpenCV accumulates in doubles, so they agree to within rounding. The thresholded diff itself is only written out when
+ * asked for, for display.
+ * <p>
+ * A parallel kernel splits the frame into horizontal stripes, chosen from the frame size and the pool's threads when
+ * the size changes. Each stripe sums its own rows into partial moments in frame coordinates, which add up to exactly
+ * the serial result. The stripes and their tasks are reused from frame to frame. A kernel is still used by one thread
+ * at a time, which waits for its stripes. Not thread safe.
+ */
+class FusedMotionKernel {
+    private byte[] currPixels = new byte[0];
+    private byte[] prevPixels = new byte[0];
+    private byte[] mask = new byte[0];
+    private int rows;
+    private int cols;
+    private int prevRows;
+    private int prevCols;
+    private boolean prevValid = false;
+
+    private long count;
+    private long sumX;
+    private long sumY;
+
+    // Zero for a serial kernel
+    private final int minStripePixels;
+    private final int parallelism;
+    private final StripeRoot root = new StripeRoot();
+    private Stripe[] stripes = new Stripe[0];
+    private int stripeRows;
+    private int stripeCols;
+
+    FusedMotionKernel() {
+        this(0, 1);
+    }
+
+    /**
+     * A kernel which splits each frame into horizontal stripes, processed in parallel on a shared {@link ForkJoinPool}.
+     *
+     * @param minStripePixels the fewest pixels worth giving a stripe of their own, or zero for a serial kernel
+     */
+    FusedMotionKernel(int minStripePixels) {
+        this(minStripePixels, StripePool.POOL.getParallelism());
+    }
+
+    /**
+     * A parallel kernel with up to the given number of stripes, whatever the pool's size.
+     */
+    FusedMotionKernel(int minStripePixels, int parallelism) {
+        this.minStripePixels = minStripePixels;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Diff a grayscale frame against the frame given in the previous call, then keep it to diff the next frame against.
+     *
+     * @param writeMask whether to keep the thresholded diff for {@link #writeMask(Mat)}
+     * @return false if there was no previous frame of the same size to diff against
+     */
+    boolean update(Mat frame, double threshold, boolean writeMask) {
+        int length = frame.rows() * frame.cols();
+        if (currPixels.length != length) {
+            currPixels = new byte[length];
+        }
+        frame.get(0, 0, currPixels);
+        return diffCurrent(frame.rows(), frame.cols(), threshold, writeMask);
+    }
+
+    /**
+     * As {@link #update(Mat, double, boolean)}, for a frame already copied out row by row.
+     */
+    boolean update(byte[] frame, int rows, int cols, double threshold, boolean writeMask) {
+        int length = rows * cols;
+        if (currPixels.length != length) {
+            currPixels = new byte[length];
+        }
+        System.arraycopy(frame, 0, currPixels, 0, length);
+        return diffCurrent(rows, cols, threshold, writeMask);
+    }
+
+    private boolean diffCurrent(int rows, int cols, double threshold, boolean writeMask) {
+        this.rows = rows;
+        this.cols = cols;
+        int length = rows * cols;
+        boolean diffed = prevValid && prevRows == rows && prevCols == cols;
+        if (diffed) {
+            if (writeMask && mask.length != length) {
+                mask = new byte[length];
+            }
+            accumulate((int) Math.floor(threshold), writeMask);
+        }
+
+        byte[] swap = prevPixels;
+        prevPixels = currPixels;
+        currPixels = swap;
+        prevRows = rows;
+        prevCols = cols;
+        prevValid = true;
+        return diffed;
+    }
+
+    /**
+     * Forget the previous frame, such as when capture restarts.
+     */
+    void reset() {
+        prevValid = false;
+    }
+
+    double getM00() {
+        return 255.0 * count;
+    }
+
+    double getM10() {
+        return 255.0 * sumX;
+    }
+
+    double getM01() {
+        return 255.0 * sumY;
+    }
+
+    /**
+     * The thresholded diff of the last frame, row by row, with set pixels as 255. Only valid after an update which kept
+     * it, and shared with the kernel.
+     */
+    byte[] getMask() {
+        return mask;
+    }
+
+    /**
+     * Write the thresholded diff of the last frame into a Mat, as the OpenCV path would have left it.
+     */
+    void writeMask(Mat diffFrame) {
+        diffFrame.create(rows, cols, CvType.CV_8UC1);
+        diffFrame.put(0, 0, mask);
+    }
+
+    private void accumulate(int threshold, boolean writeMask) {
+        if (stripes.length == 0 || stripeRows != rows || stripeCols != cols) {
+            createStripes();
+        }
+        for (Stripe stripe : stripes) {
+            stripe.threshold = threshold;
+            stripe.writeMask = writeMask;
+        }
+        if (stripes.length == 1) {
+            stripes[0].accumulate();
+        } else {
+            root.reinitialize();
+            StripePool.POOL.invoke(root);
+        }
+
+        long totalCount = 0;
+        long totalSumX = 0;
+        long totalSumY = 0;
+        for (Stripe stripe : stripes) {
+            totalCount += stripe.count;
+            totalSumX += stripe.sumX;
+            totalSumY += stripe.sumY;
+        }
+        count = totalCount;
+        sumX = totalSumX;
+        sumY = totalSumY;
+    }
+
+    /**
+     * Split the rows into stripes for the current frame size, only when it changes.
+     */
+    private void createStripes() {
+        int stripeCount = minStripePixels > 0
+                ? chooseStripeCount(rows, cols, parallelism, minStripePixels) : 1;
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(rows * i / stripeCount, rows * (i + 1) / stripeCount);
+        }
+        stripeRows = rows;
+        stripeCols = cols;
+    }
+
+    /**
+     * One stripe per pool thread, as long as each stripe has at least the given number of pixels, so small regions are
+     * not split into stripes which cost more to hand out than to process.
+     */
+    static int chooseStripeCount(int rows, int cols, int parallelism, int minStripePixels) {
+        long stripes = Math.min(parallelism, (long) rows * cols / Math.max(1, minStripePixels));
+        return (int) Math.max(1, Math.min(stripes, rows));
+    }
+
+    /**
+     * The threads shared by every parallel kernel, one per core within the capture core budget.
+     */
+    private static final class StripePool {
+        private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+        private static final ForkJoinPool POOL = new ForkJoinPool(parallelism(), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("detection-stripe-" + THREAD_COUNT.incrementAndGet());
+            return thread;
+        }, null, false);
+
+        private static int parallelism() {
+            int cores = Runtime.getRuntime().availableProcessors();
+            return Config.CAPTURE_CORE_BUDGET > 0 ? Math.min(Config.CAPTURE_CORE_BUDGET, cores) : cores;
+        }
+    }
+
+    /**
+     * Forks every stripe but the first, which it accumulates itself, and waits for the rest.
+     */
+    private final class StripeRoot extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            for (int i = 1; i < stripes.length; i++) {
+                stripes[i].reinitialize();
+                stripes[i].fork();
+            }
+            stripes[0].accumulate();
+            for (int i = stripes.length - 1; i > 0; i--) {
+                stripes[i].join();
+            }
+        }
+    }
+
+    /**
+     * The partial sums of a band of rows. The sums are in frame coordinates, so stripes merge by adding them up.
+     */
+    private final class Stripe extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int fromRow;
+        private final int toRow;
+        private int threshold;
+        private boolean writeMask;
+        private long count;
+        private long sumX;
+        private long sumY;
+
+        private Stripe(int fromRow, int toRow) {
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            accumulate();
+        }
+
+        private void accumulate() {
+            byte[] curr = currPixels;
+            byte[] prev = prevPixels;
+            long totalCount = 0;
+            long totalSumX = 0;
+            long totalSumY = 0;
+            for (int y = fromRow; y < toRow; y++) {
+                int rowStart = y * cols;
+                int rowEnd = rowStart + cols;
+                // Four independent accumulators, so consecutive pixels do not wait on each other
+                int count0 = 0;
+                int count1 = 0;
+                int count2 = 0;
+                int count3 = 0;
+                long sumX0 = 0;
+                long sumX1 = 0;
+                long sumX2 = 0;
+                long sumX3 = 0;
+                int i = rowStart;
+                for (; i + 3 < rowEnd; i += 4) {
+                    int x = i - rowStart;
+                    // 1 when the difference is above the threshold, from the sign of threshold - difference
+                    int set0 = (threshold - Math.abs((curr[i] & 0xFF) - (prev[i] & 0xFF))) >>> 31;
+                    int set1 = (threshold - Math.abs((curr[i + 1] & 0xFF) - (prev[i + 1] & 0xFF))) >>> 31;
+                    int set2 = (threshold - Math.abs((curr[i + 2] & 0xFF) - (prev[i + 2] & 0xFF))) >>> 31;
+                    int set3 = (threshold - Math.abs((curr[i + 3] & 0xFF) - (prev[i + 3] & 0xFF))) >>> 31;
+                    count0 += set0;
+                    count1 += set1;
+                    count2 += set2;
+                    count3 += set3;
+                    sumX0 += set0 * x;
+                    sumX1 += set1 * (x + 1);
+                    sumX2 += set2 * (x + 2);
+                    sumX3 += set3 * (x + 3);
+                    if (writeMask) {
+                        mask[i] = (byte) -set0;
+                        mask[i + 1] = (byte) -set1;
+                        mask[i + 2] = (byte) -set2;
+                        mask[i + 3] = (byte) -set3;
+                    }
+                }
+                for (; i < rowEnd; i++) {
+                    int set = (threshold - Math.abs((curr[i] & 0xFF) - (prev[i] & 0xFF))) >>> 31;
+                    count0 += set;
+                    sumX0 += set * (i - rowStart);
+                    if (writeMask) {
+                        mask[i] = (byte) -set;
+                    }
+                }
+                long rowCount = count0 + count1 + count2 + count3;
+                totalCount += rowCount;
+                totalSumX += sumX0 + sumX1 + sumX2 + sumX3;
+                totalSumY += rowCount * y;
+            }
+            count = totalCount;
+            sumX = totalSumX;
+            sumY = totalSumY;
+        }
+    }
+}
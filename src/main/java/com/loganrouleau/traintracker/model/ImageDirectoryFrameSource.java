@@ -0,0 +1,119 @@
+package com.loganrouleau.traintracker.model;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Recorded frames from a directory of images, read in file name order. Snapshots saved by the detector are named by
+ * timestamp, so this replays them in capture order. Frame times are the files' last modified times.
+ */
+public class ImageDirectoryFrameSource implements FrameSource {
+    private static final Logger LOG = LogManager.getLogger(ImageDirectoryFrameSource.class);
+
+    private final Path directory;
+    private List<Path> imageFiles = null;
+    private int nextImage = 0;
+    private long frameTimeMillis;
+    private long frameTimeNanos;
+
+    public ImageDirectoryFrameSource(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Whether a file has an extension OpenCV can read as an image.
+     */
+    public static boolean isImageFile(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png") || name.endsWith(".bmp")
+                || name.endsWith(".tif") || name.endsWith(".tiff");
+    }
+
+    @Override
+    public boolean open() {
+        if (imageFiles != null) {
+            return true;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            imageFiles = files.filter(Files::isRegularFile)
+                    .filter(ImageDirectoryFrameSource::isImageFile)
+                    .sorted()
+                    .collect(Collectors.toList());
+            nextImage = 0;
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Unable to list images in " + directory + ": " + e);
+            imageFiles = Collections.emptyList();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return imageFiles != null;
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        while (imageFiles != null && nextImage < imageFiles.size()) {
+            Path imageFile = imageFiles.get(nextImage++);
+            Mat image = Imgcodecs.imread(imageFile.toString(), Imgcodecs.IMREAD_COLOR);
+            try {
+                if (image.empty()) {
+                    LOG.warn("Skipping unreadable image " + imageFile);
+                    continue;
+                }
+                image.copyTo(frame);
+                frameTimeMillis = Files.getLastModifiedTime(imageFile).toMillis();
+                frameTimeNanos = Math.max(frameTimeNanos, TimeUnit.MILLISECONDS.toNanos(frameTimeMillis));
+                return true;
+            } catch (IOException e) {
+                // Keep the previous frame's time rather than skipping a readable image
+                LOG.warn("Unable to read modified time of " + imageFile + ": " + e);
+                return true;
+            } finally {
+                image.release();
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long getFrameTimeMillis() {
+        return frameTimeMillis;
+    }
+
+    /**
+     * The frame's modified time, held at the previous frame's time if it is earlier, so it never runs backwards.
+     */
+    @Override
+    public long getFrameTimeNanos() {
+        return frameTimeNanos;
+    }
+
+    @Override
+    public boolean isLive() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        imageFiles = null;
+    }
+
+    @Override
+    public String toString() {
+        return directory.toString();
+    }
+}
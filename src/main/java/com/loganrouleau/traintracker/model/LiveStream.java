@@ -0,0 +1,197 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The live view of one detector, served by the {@link LiveViewServer}. The detector publishes its display frames here
+ * and its {@link FrameData} and detections through its {@link DetectorEvents}, without waiting on anything: a frame is
+ * only copied if a client is watching and the previous frame has finished encoding, otherwise it is skipped. Each
+ * frame is encoded to JPEG once, and every client writes the same bytes. Clients wait for the next frame on their own
+ * threads and always take the latest one, so a slow client skips frames rather than holding up the detector or other
+ * clients. Thread safe.
+ */
+class LiveStream {
+    private static final Logger LOG = LogManager.getLogger(LiveStream.class);
+
+    private final String location;
+    private final Executor encoder;
+    private final AtomicInteger frameClients = new AtomicInteger();
+    private final AtomicBoolean encoding = new AtomicBoolean();
+
+    // Owned by whichever thread holds the encoding flag
+    private final Mat stagingFrame = new Mat();
+    private final Mat bgrFrame = new Mat();
+    private final MatOfByte encodeBuffer = new MatOfByte();
+    private final MatOfInt encodeParams = new MatOfInt(Imgcodecs.CV_IMWRITE_JPEG_QUALITY, Config.IMAGE_JPEG_QUALITY);
+
+    // Guarded by this, which clients wait on for new frames and data
+    private byte[] latestJpeg;
+    private long frameSequence;
+    private FrameData latestData;
+    private long dataSequence;
+    private long detectionsStarted;
+    private boolean closed;
+
+    LiveStream(String location, Executor encoder) {
+        this.location = location;
+        this.encoder = encoder;
+    }
+
+    String getLocation() {
+        return location;
+    }
+
+    /**
+     * Offer a display frame. Called on the detector's render thread, and never waits.
+     */
+    void publishFrame(Mat displayFrame) {
+        if (frameClients.get() == 0 || !encoding.compareAndSet(false, true)) {
+            return;
+        }
+        displayFrame.copyTo(stagingFrame);
+        try {
+            encoder.execute(this::encode);
+        } catch (RejectedExecutionException e) {
+            // The server has closed, and the frame will never be encoded
+            if (isClosed()) {
+                // As after an encode, the flag is left set and the buffers are freed here, as close() skipped them
+                releaseBuffers();
+            } else {
+                stagingFrame.release();
+                encoding.set(false);
+            }
+        }
+    }
+
+    /**
+     * Offer the latest frame data. Called on the detector's event delivery thread.
+     */
+    synchronized void publishData(FrameData frameData) {
+        latestData = frameData;
+        dataSequence++;
+        notifyAll();
+    }
+
+    /**
+     * Count a detection starting. Delivered separately from the frame data, so a client sees every detection even if
+     * it misses the frame data that started it.
+     */
+    synchronized void countDetection() {
+        detectionsStarted++;
+        notifyAll();
+    }
+
+    void addFrameClient() {
+        frameClients.incrementAndGet();
+    }
+
+    void removeFrameClient() {
+        frameClients.decrementAndGet();
+    }
+
+    /**
+     * Wait for a frame newer than the given sequence.
+     *
+     * @return the sequence of the latest frame, which is the same as given if none arrived in time or the stream closed
+     */
+    synchronized long awaitFrame(long afterSequence, long timeoutMillis) throws InterruptedException {
+        if (frameSequence == afterSequence && !closed) {
+            wait(timeoutMillis);
+        }
+        return frameSequence;
+    }
+
+    /**
+     * The latest encoded frame. The array is shared with every client and must not be modified.
+     */
+    synchronized byte[] getLatestJpeg() {
+        return latestJpeg;
+    }
+
+    /**
+     * Wait for frame data newer than the given sequence.
+     *
+     * @return the sequence of the latest frame data, which is the same as given if none arrived in time or the stream
+     * closed
+     */
+    synchronized long awaitData(long afterSequence, long timeoutMillis) throws InterruptedException {
+        if (dataSequence == afterSequence && !closed) {
+            wait(timeoutMillis);
+        }
+        return dataSequence;
+    }
+
+    synchronized FrameData getLatestData() {
+        return latestData;
+    }
+
+    synchronized long getDetectionsStarted() {
+        return detectionsStarted;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Wake every client so they finish, and free the frame buffers once no encode is in progress.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (encoding.compareAndSet(false, true)) {
+            // Otherwise the encode in progress releases them when it finishes
+            releaseBuffers();
+        }
+    }
+
+    private void encode() {
+        try {
+            Mat frame = stagingFrame;
+            if (frame.channels() == 4) {
+                Imgproc.cvtColor(frame, bgrFrame, Imgproc.COLOR_BGRA2BGR);
+                frame = bgrFrame;
+            }
+            if (!Imgcodecs.imencode(".jpg", frame, encodeBuffer, encodeParams)) {
+                LOG.warn("Unable to encode live view frame for " + location);
+                return;
+            }
+            byte[] jpeg = encodeBuffer.toArray();
+            synchronized (this) {
+                latestJpeg = jpeg;
+                frameSequence++;
+                notifyAll();
+            }
+        } catch (Exception e) {
+            LOG.warn("Exception while encoding live view frame for " + location + ": " + e);
+        } finally {
+            if (isClosed()) {
+                // The flag is left set so that nothing is encoded into the released buffers
+                releaseBuffers();
+            } else {
+                encoding.set(false);
+            }
+        }
+    }
+
+    private void releaseBuffers() {
+        stagingFrame.release();
+        bgrFrame.release();
+        encodeBuffer.release();
+        encodeParams.release();
+    }
+}
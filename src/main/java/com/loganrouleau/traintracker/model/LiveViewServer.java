@@ -0,0 +1,292 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small HTTP server for watching the detectors remotely. Bound to localhost unless configured otherwise.
+ * <ul>
+ * <li>{@code /} lists the detectors, with their live views and metrics.</li>
+ * <li>{@code /stream/<location>} streams a detector's display frames as MJPEG.</li>
+ * <li>{@code /events/<location>} pushes its frame data as server-sent events, as a {@code frame} event at most every
+ * {@value #EVENT_INTERVAL_MILLIS} ms and a {@code detection} event whenever a train is first detected.</li>
+ * </ul>
+ * Each client is served on its own thread, up to the configured limit, and the detectors never wait for them. See
+ * {@link LiveStream}. Thread safe.
+ */
+public class LiveViewServer {
+    private static final Logger LOG = LogManager.getLogger(LiveViewServer.class);
+    private static final LiveViewServer liveViewServer = new LiveViewServer();
+    private static final String BOUNDARY = "frame";
+    private static final long EVENT_INTERVAL_MILLIS = 200;
+    // Clients wake at least this often to notice a closed connection or stream
+    private static final long CLIENT_POLL_MILLIS = 1000;
+
+    private final Map<String, LiveStream> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger clients = new AtomicInteger();
+    private HttpServer server;
+    private ExecutorService clientPool;
+    // Created with the first stream after the server was last closed
+    private ExecutorService encoder;
+
+    private LiveViewServer() {
+    }
+
+    public static LiveViewServer getInstance() {
+        return liveViewServer;
+    }
+
+    /**
+     * Start serving on the configured host and port. Does nothing if already started.
+     */
+    public synchronized void start() {
+        if (server != null) {
+            return;
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(Config.LIVE_VIEW_HOST, Config.LIVE_VIEW_PORT), 0);
+        } catch (IOException e) {
+            LOG.error("Unable to start live view server on " + Config.LIVE_VIEW_HOST + ":" + Config.LIVE_VIEW_PORT
+                    + ": " + e);
+            return;
+        }
+        clientPool = Executors.newCachedThreadPool(daemonThreads("live-view-client"));
+        server.setExecutor(clientPool);
+        server.createContext("/", this::handle);
+        server.start();
+        LOG.info("Serving live view on http://" + Config.LIVE_VIEW_HOST + ":" + server.getAddress().getPort() + "/");
+    }
+
+    /**
+     * Stop serving and disconnect every client.
+     */
+    public synchronized void close() {
+        if (server == null) {
+            return;
+        }
+        for (LiveStream stream : streams.values()) {
+            stream.close();
+        }
+        server.stop(0);
+        clientPool.shutdownNow();
+        if (encoder != null) {
+            encoder.shutdown();
+            encoder = null;
+        }
+        server = null;
+    }
+
+    /**
+     * Create the stream a detector publishes to, replacing any previous stream for the same location.
+     */
+    synchronized LiveStream openStream(String location) {
+        if (encoder == null) {
+            encoder = Executors.newSingleThreadExecutor(daemonThreads("live-view-encoder"));
+        }
+        LiveStream stream = new LiveStream(location, encoder);
+        LiveStream previous = streams.put(location, stream);
+        if (previous != null) {
+            previous.close();
+        }
+        return stream;
+    }
+
+    void closeStream(LiveStream stream) {
+        streams.remove(stream.getLocation(), stream);
+        stream.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+            } else if (path.equals("/")) {
+                sendIndex(exchange);
+            } else if (path.startsWith("/stream/")) {
+                serveClient(exchange, path.substring("/stream/".length()), true);
+            } else if (path.startsWith("/events/")) {
+                serveClient(exchange, path.substring("/events/".length()), false);
+            } else {
+                sendError(exchange, 404, "Not found");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void serveClient(HttpExchange exchange, String encodedLocation, boolean frames) throws IOException {
+        LiveStream stream = streams.get(URLDecoder.decode(encodedLocation, "UTF-8"));
+        if (stream == null) {
+            sendError(exchange, 404, "No detector is running at " + encodedLocation);
+            return;
+        }
+        if (clients.incrementAndGet() > Config.LIVE_VIEW_MAX_CLIENTS) {
+            clients.decrementAndGet();
+            sendError(exchange, 503, "Too many clients");
+            return;
+        }
+        try {
+            if (frames) {
+                streamFrames(exchange, stream);
+            } else {
+                streamEvents(exchange, stream);
+            }
+        } catch (IOException e) {
+            // The client disconnected
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            clients.decrementAndGet();
+        }
+    }
+
+    private static void streamFrames(HttpExchange exchange, LiveStream stream)
+            throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "multipart/x-mixed-replace; boundary=" + BOUNDARY);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        stream.addFrameClient();
+        try {
+            long sequence = 0;
+            while (!stream.isClosed()) {
+                long latest = stream.awaitFrame(sequence, CLIENT_POLL_MILLIS);
+                if (latest == sequence) {
+                    continue;
+                }
+                sequence = latest;
+                byte[] jpeg = stream.getLatestJpeg();
+                out.write(("--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: " + jpeg.length
+                        + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(jpeg);
+                out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            }
+        } finally {
+            stream.removeFrameClient();
+        }
+    }
+
+    private static void streamEvents(HttpExchange exchange, LiveStream stream)
+            throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        long sequence = 0;
+        long detections = stream.getDetectionsStarted();
+        while (!stream.isClosed()) {
+            long latest = stream.awaitData(sequence, CLIENT_POLL_MILLIS);
+            StringBuilder events = new StringBuilder();
+            long latestDetections = stream.getDetectionsStarted();
+            if (latestDetections != detections) {
+                detections = latestDetections;
+                events.append("event: detection\ndata: {\"location\":\"").append(escapeJson(stream.getLocation()))
+                        .append("\",\"detections\":").append(detections).append("}\n\n");
+            }
+            FrameData frameData = stream.getLatestData();
+            if (latest != sequence && frameData != null) {
+                sequence = latest;
+                events.append("event: frame\ndata: ").append(toJson(stream.getLocation(), frameData)).append("\n\n");
+            } else {
+                // A comment, so a dropped connection is noticed even while nothing is happening
+                events.append(":\n\n");
+            }
+            out.write(events.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            // Frame data arrives every frame, which is far more often than anyone can read it
+            Thread.sleep(EVENT_INTERVAL_MILLIS);
+        }
+    }
+
+    private void sendIndex(HttpExchange exchange) throws IOException {
+        StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><title>Train Tracker</title></head><body>");
+        int index = 0;
+        for (String location : streams.keySet()) {
+            // Only the URL encoded location goes in the script, which leaves nothing in it to escape
+            String encoded = URLEncoder.encode(location, "UTF-8").replace("+", "%20");
+            String id = "data-" + index++;
+            html.append("<div><h2>").append(escapeHtml(location)).append("</h2><img src=\"/stream/").append(encoded)
+                    .append("\"><pre id=\"").append(id).append("\"></pre></div>")
+                    .append("<script>new EventSource('/events/").append(encoded)
+                    .append("').addEventListener('frame', function (e) { document.getElementById('")
+                    .append(id).append("').textContent = e.data; });</script>");
+        }
+        html.append("</body></html>");
+        send(exchange, 200, "text/html; charset=utf-8", html.toString());
+    }
+
+    private static String toJson(String location, FrameData frameData) {
+        return String.format(Locale.ROOT, "{\"location\":\"%s\",\"frameSequence\":%d,\"trainDetected\":%b,"
+                        + "\"diffFrameIntensitySum\":%.0f,\"queuedFrames\":%d,\"droppedFrames\":%d}",
+                escapeJson(location), frameData.getFrameSequence(), frameData.isTrainDetected(),
+                frameData.getDiffFrameIntensitySum(), frameData.getQueuedFrames(), frameData.getDroppedFrames());
+    }
+
+    /**
+     * Escape text for HTML content or a quoted attribute.
+     */
+    static String escapeHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;")
+                .replace("'", "&#39;");
+    }
+
+    /**
+     * Escape text for the inside of a JSON string.
+     */
+    static String escapeJson(String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 8);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "text/plain; charset=utf-8", message);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
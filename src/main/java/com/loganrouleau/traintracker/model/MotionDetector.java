@@ -1,9 +1,8 @@
 package com.loganrouleau.traintracker.model;
 
 import com.loganrouleau.traintracker.Config;
-import com.loganrouleau.traintracker.Utils;
+import com.loganrouleau.traintracker.FrameRenderer;
 import com.loganrouleau.traintracker.controller.CameraController;
-import javafx.scene.image.Image;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.opencv.core.Core;
@@ -11,238 +10,676 @@ import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
-import org.opencv.core.Size;
-import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.imgproc.Moments;
-import org.opencv.videoio.VideoCapture;
-
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Observable;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
-import static org.opencv.imgproc.Imgproc.COLOR_GRAY2BGR;
-import static org.opencv.videoio.Videoio.CV_CAP_PROP_FRAME_HEIGHT;
-import static org.opencv.videoio.Videoio.CV_CAP_PROP_FRAME_WIDTH;
+import static org.opencv.imgproc.Imgproc.COLOR_GRAY2BGRA;
 
 /**
- * Interacts with a camera device on request by a {@link CameraController}. The public methods are thread safe so that
- * multiple controllers can read frames from the same device.
+ * Detects motion within one region of a shared {@link CaptureDevice} on request by a {@link CameraController}. The
+ * public methods are thread safe so that multiple controllers can use regions of the same device. Settings are
+ * published as a {@link DetectorSettings} snapshot, so processing a frame never waits on a lock held by the UI.
+ * Frame data and detections are published to subscribers through {@link #getEvents()}, which never makes processing
+ * wait on them either.
  */
-public class MotionDetector extends Observable {
+public class MotionDetector {
     private static final Logger LOG = LogManager.getLogger(MotionDetector.class);
 
-    private VideoCapture capture = new VideoCapture();
-    private boolean calibrating = false;
-    private static int activeCaptures = 0;
-    private String location;
-
-    private ScheduledExecutorService timer;
-    private boolean trainDetected = false;
-    private boolean trackingCentroids = false;
-    private List<Double> centroidList = new ArrayList<>();
-    private int trainDetectedFrames = 0;
-    private Mat prevFrame = null;
-    private Point point1;
-    private Point point2;
+    private enum Lifecycle {
+        STOPPED, STARTING, RUNNING, STOPPING
+    }
 
-    private double thresholdSliderValue;
-    private double detectionToleranceSliderValue;
+    private final AtomicReference<DetectorSettings> settings = new AtomicReference<>(DetectorSettings.DEFAULT);
+    private final AtomicReference<Lifecycle> lifecycle = new AtomicReference<>(Lifecycle.STOPPED);
+    // Set by a stop requested while the detector is starting
+    private final AtomicBoolean stopPending = new AtomicBoolean();
+    private volatile boolean forceStopPending;
+    private String location;
+    private final DetectorEvents events = new DetectorEvents();
+
+    private final DetectionState detectionState = new DetectionState();
+    private final FrameBuffers buffers = new FrameBuffers();
+    private final FrameMetrics metrics = new FrameMetrics();
+    private FrameRenderer frameRenderer;
+    private CaptureDevice captureDevice;
+    private boolean persistFrames = true;
+    private EventCorrelator eventCorrelator = EventCorrelator.getInstance();
+    private ClipRecorder clipRecorder;
+    private LiveStream liveStream;
+    private DetectorEvents.Subscription liveDataSubscription;
+    private DetectorEvents.Subscription liveDetectionSubscription;
+    private volatile DetectionPipeline pipeline;
+    private FusedMotionKernel fusedKernel;
+    private final MotionHeatmap heatmap = new MotionHeatmap();
+    private double diffFrameIntensitySum;
+    private TelemetryRecorder telemetryRecorder;
+    private long telemetrySequence;
+    private long lastQuietFrameNanos;
+    // Fixed from the settings when capture starts
+    private Rect captureBox;
+    private double scaleFactor;
 
     private static final Scalar GREEN = new Scalar(0, 255, 0);
-    private static final Scalar RED = new Scalar(0, 0, 255);
+    // Drawn on BGRA display frames, so the alpha channel must be opaque
+    private static final Scalar RED = new Scalar(0, 0, 255, 255);
 
     public void setLocation(String location) {
         this.location = location;
     }
 
+    /**
+     * Set where display frames are drawn. Without a renderer, no display frames are produced at all.
+     */
+    public void setFrameRenderer(FrameRenderer frameRenderer) {
+        this.frameRenderer = frameRenderer;
+    }
+
+    /**
+     * Set the device this detector reads frames from. Defaults to the configured camera.
+     */
+    public void setCaptureDevice(CaptureDevice captureDevice) {
+        this.captureDevice = captureDevice;
+    }
+
+    /**
+     * Set whether trains are saved, as a clip per detection or, with clip recording disabled, as a snapshot per
+     * detected frame. Defaults to true.
+     */
+    public void setPersistFrames(boolean persistFrames) {
+        this.persistFrames = persistFrames;
+    }
+
+    /**
+     * Set what this detector's detections are correlated with. Defaults to the correlator shared by live detectors.
+     */
+    public void setEventCorrelator(EventCorrelator eventCorrelator) {
+        this.eventCorrelator = eventCorrelator;
+    }
+
+    private CaptureDevice getCaptureDevice() {
+        if (captureDevice == null) {
+            captureDevice = CaptureDevice.forCamera(Config.CAMERA_ID);
+        }
+        return captureDevice;
+    }
+
+    /**
+     * Where this detector publishes its frame data and detections.
+     */
+    public DetectorEvents getEvents() {
+        return events;
+    }
+
+    /**
+     * The time spent in each stage of detection for this region, and how many frames and trains it has seen.
+     */
+    public FrameMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * The metrics of the device this detector reads frames from, which are shared with any other detectors on it.
+     */
+    public FrameMetrics getCaptureDeviceMetrics() {
+        return getCaptureDevice().getMetrics();
+    }
+
+    public DetectorSettings getSettings() {
+        return settings.get();
+    }
+
+    /**
+     * Replace all the settings at once. They take effect from the next frame, except for the bounding box which takes
+     * effect when capture next starts.
+     */
+    public void setSettings(DetectorSettings settings) {
+        this.settings.set(settings);
+    }
+
     public boolean isCalibrating() {
-        return calibrating;
+        return settings.get().isCalibrating();
     }
 
     public void setCalibrating(boolean calibrating) {
-        this.calibrating = calibrating;
+        settings.updateAndGet(current -> current.withCalibrating(calibrating));
     }
 
     public void setBoundingBox(int x1, int y1, int x2, int y2) {
-        point1 = new Point(x1, y1);
-        point2 = new Point(x2, y2);
+        settings.updateAndGet(current -> current.withBoundingBox(x1, y1, x2, y2));
     }
 
     public void setThreshold(double threshold) {
-        thresholdSliderValue = threshold;
+        settings.updateAndGet(current -> current.withThreshold(threshold));
     }
 
     public void setDetectionTolerance(double detectionTolerance) {
-        detectionToleranceSliderValue = detectionTolerance;
+        settings.updateAndGet(current -> current.withDetectionTolerance(detectionTolerance));
+    }
+
+    /**
+     * A bounding box around the part of the region in which trains have been seen to move, from the motion heatmap.
+     * It is kept across captures for as long as the region is unchanged.
+     *
+     * @return the suggested box in frame coordinates, or null if the heatmap is disabled or has not yet seen enough
+     * frames with a train
+     */
+    public Rect getSuggestedBoundingBox() {
+        if (!Config.HEATMAP_ENABLED || heatmap.getFrames() < Config.HEATMAP_MIN_FRAMES) {
+            return null;
+        }
+        return heatmap.suggestBoundingBox(Config.HEATMAP_COVERAGE_FRACTION, Config.HEATMAP_MARGIN_PIXELS);
+    }
+
+    /**
+     * Replace the bounding box with the suggested one, if there is a suggestion. Like any bounding box change, it takes
+     * effect when capture next starts, and the heatmap then starts again for the new region.
+     *
+     * @return the adopted box, or null if there was no suggestion
+     */
+    public Rect adoptSuggestedBoundingBox() {
+        Rect box = getSuggestedBoundingBox();
+        if (box != null) {
+            setBoundingBox(box.x, box.y, box.x + box.width, box.y + box.height);
+            LOG.info(location + " adopted suggested bounding box " + box + " after " + heatmap.getFrames()
+                    + " frames");
+        }
+        return box;
+    }
+
+    /**
+     * Whether the detector has been started and not yet stopped.
+     */
+    public boolean isRunning() {
+        return lifecycle.get() == Lifecycle.RUNNING;
     }
 
     /**
-     * The main capture loop, which uses OpenCV to process frames. Motion is detected by applying a frame difference
+     * Start processing frames from the shared camera device. Motion is detected by applying a frame difference
      * threshold. The x-component of the image intensity centroid is compared with the previous frame and binned as
      * positive or negative for a rough direction estimate. Once motion is no longer detected, the mode of the per-frame
      * direction estimates is used as the overall direction for that motion event.
+     * <p>
+     * Does nothing if the detector is already running, or is being started or stopped on another thread. If starting
+     * fails, whatever was acquired is released and the detector is left stopped, so it can be started again. A stop
+     * requested while starting is carried out once the detector is running.
      */
-    public synchronized void capture() {
-        if (activeCaptures == 0) {
-            capture.open(Config.CAMERA_ID);
-            capture.set(CV_CAP_PROP_FRAME_WIDTH, Config.DISPLAY_WIDTH_PIXELS);
-            capture.set(CV_CAP_PROP_FRAME_HEIGHT, Config.DISPLAY_HEIGHT_PIXELS);
+    public void capture() {
+        if (!lifecycle.compareAndSet(Lifecycle.STOPPED, Lifecycle.STARTING)) {
+            LOG.warn(location + " detector is already " + lifecycle.get().name().toLowerCase());
+            return;
+        }
+        boolean started = false;
+        try {
+            start();
+            started = true;
+        } finally {
+            if (!started) {
+                release();
+                stopPending.set(false);
+                lifecycle.set(Lifecycle.STOPPED);
+            }
+        }
+        lifecycle.set(Lifecycle.RUNNING);
+        if (stopPending.getAndSet(false)) {
+            stopAcquisition(forceStopPending);
         }
+    }
 
-        Rect captureBox = new Rect(point1, point2);
+    private void start() {
+        captureBox = settings.get().getBoundingBox();
         double xScaleFactor = Config.DISPLAY_WIDTH_PIXELS / (double) captureBox.width;
         double yScaleFactor = Config.DISPLAY_HEIGHT_PIXELS / (double) captureBox.height;
         LOG.info(xScaleFactor + ", " + yScaleFactor);
-        double scaleFactor = Math.min(xScaleFactor, yScaleFactor);
+        scaleFactor = Math.min(xScaleFactor, yScaleFactor);
+
+        buffers.reset();
+        buffers.setDecimation(Config.DETECTION_PYRAMID_LEVELS, Config.DETECTION_DOWNSCALE_FACTOR);
+        if (!Config.DETECTION_FUSED_KERNEL) {
+            fusedKernel = null;
+        } else if (Config.DETECTION_PARALLEL) {
+            fusedKernel = new FusedMotionKernel(Config.DETECTION_PARALLEL_MIN_STRIPE_PIXELS);
+        } else {
+            fusedKernel = new FusedMotionKernel();
+        }
+        if (Config.HEATMAP_ENABLED) {
+            heatmap.prepare(captureBox, buffers.getDetectionScale());
+        }
+        lastQuietFrameNanos = System.nanoTime();
+        buffers.setScaledDisplaySize(scaleFactor * captureBox.width, scaleFactor * captureBox.height);
+        if (Config.TELEMETRY_ENABLED) {
+            openTelemetry();
+        }
+        if (Config.LIVE_VIEW_ENABLED) {
+            LiveStream stream = LiveViewServer.getInstance().openStream(location);
+            liveStream = stream;
+            liveDataSubscription = events.subscribe(FrameData.class, DeliveryPolicy.LATEST_ONLY, stream::publishData);
+            liveDetectionSubscription = events.subscribe(DetectionStarted.class, DeliveryPolicy.LOSSLESS,
+                    event -> stream.countDetection());
+        }
+        if (persistFrames && Config.CLIP_RECORDING_ENABLED) {
+            clipRecorder = new ClipRecorder(location, Config.FRAMES_PER_SECOND, Config.CLIP_PRE_ROLL_MILLIS,
+                    Config.CLIP_POST_ROLL_MILLIS, Config.CLIP_QUEUE_FRAMES);
+        }
+        if (Config.PIPELINE_ENABLED) {
+            DetectionPipeline newPipeline = new DetectionPipeline(this, location);
+            metrics.setDroppedFrameCounter(newPipeline::getDroppedFrames);
+            pipeline = newPipeline;
+            pipeline.start();
+        } else {
+            metrics.setDroppedFrameCounter(null);
+        }
+        metrics.register("Detector", String.valueOf(location));
+        getCaptureDevice().register(this);
+    }
 
-        Runnable frameGrabber = () -> {
-            Mat currFrame = new Mat();
-            String timestamp = null;
-            String fileName = null;
+    private void openTelemetry() {
+        Path telemetryFile = Paths.get(Config.TELEMETRY_DIRECTORY, "telemetry-" + location + ".bin");
+        try {
+            telemetryRecorder = new TelemetryRecorder(telemetryFile, Config.TELEMETRY_RECORDS);
+            telemetrySequence = telemetryRecorder.getNextSequence();
+        } catch (IOException e) {
+            LOG.warn("Unable to open telemetry file " + telemetryFile + ", continuing without telemetry: " + e);
+        }
+    }
 
-            if (capture.isOpened()) {
-                try {
-                    capture.read(currFrame);
-                    timestamp = LocalDateTime.now()
-                            .format(DateTimeFormatter.ofPattern(Config.TIMESTAMP_FORMAT));
-                    fileName = Config.IMAGE_OUTPUT_DIRECTORY + timestamp + "." + Config.IMAGE_EXTENSION;
-                } catch (Exception e) {
-                    LOG.warn("Exception while reading frame: " + e);
-                }
-            }
+    /**
+     * Process this detector's region of a frame. Called by the {@link CaptureDevice} on one of its threads, never
+     * concurrently for the same detector. The frame is either grayscale or, with ROI first detection, the captured
+     * color frame. It is shared with other detectors and must not be modified. In pipelined mode the region is only
+     * copied and queued here, otherwise every stage runs on the calling thread.
+     * <p>
+     * Tracking uses the frame's monotonic time, so a change to the wall clock cannot distort a train's speed or dwell.
+     * The wall clock time is only formatted for frames which are saved or reported.
+     */
+    void processFrame(Mat frame, long frameSequence, long frameTimeNanos, long frameTimeMillis) {
+        DetectionPipeline activePipeline = pipeline;
+        if (activePipeline != null) {
+            activePipeline.submit(frame, frameSequence, frameTimeNanos, frameTimeMillis);
+            return;
+        }
+
+        Mat currFrame = buffers.getCurrFrame();
+        copyRoi(frame, currFrame);
+        if (detectMotion(currFrame, frameSequence, frameTimeNanos, frameTimeMillis)) {
+            Point centroid = buffers.getCentroid();
+            renderFrame(buffers.getDiffFrame(), centroid.x, centroid.y, detectionState.isTrainDetected(),
+                    diffFrameIntensitySum, frameSequence, frameTimeNanos);
+        }
+        persistFrame(currFrame, frameTimeNanos, frameTimeMillis);
+        buffers.advance();
+    }
 
-            Imgproc.cvtColor(currFrame, currFrame, Imgproc.COLOR_BGR2GRAY);
-            currFrame = currFrame.submat(captureBox);
+    /**
+     * Copy this detector's region out of the shared frame, in grayscale and at the detection resolution.
+     */
+    void copyRoi(Mat frame, Mat roiFrame) {
+        long startNanos = System.nanoTime();
+        buffers.copyRoi(frame, captureBox, roiFrame);
+        metrics.record(FrameMetrics.Stage.GRAY_CROP, System.nanoTime() - startNanos);
+    }
 
-            if (prevFrame == null || !prevFrame.size().equals(currFrame.size())) {
+    /**
+     * The detection stage. Diff the frame against the previous one, threshold it, and update the detection state from
+     * the moments of the result. The thresholded diff is left in {@link #getDiffFrame()}. The caller is responsible for
+     * making the frame the new previous frame afterwards.
+     * <p>
+     * When nothing is moving, only the thresholded pixels are counted. If that stays under the pre-trigger level the
+     * moments, centroid and state update are skipped, as the state could not change. At a fixed frame rate the frame
+     * is still displayed and recorded, without a centroid. When the capture device schedules frames adaptively the
+     * telemetry and display are skipped too, otherwise the device is asked to switch to the full frame rate.
+     * <p>
+     * With the fused kernel the diff, threshold and moments are a single pass in Java, see {@link FusedMotionKernel},
+     * and the thresholded diff is only kept if there is a display to draw it on or a heatmap which may accumulate it,
+     * and only written out for the frames which use it.
+     * Parallel detection is the same kernel split into stripes across cores for large regions, so it implies the fused
+     * kernel.
+     * <p>
+     * With the heatmap enabled, the thresholded diff of each frame in which a train is detected is added to it.
+     *
+     * @return false if there is nothing more to do for the frame, either because there was no previous frame to diff
+     * against or because it was an idle frame without motion
+     */
+    boolean detectMotion(Mat currFrame, long frameSequence, long frameTimeNanos, long frameTimeMillis) {
+        metrics.frameProcessed();
+        // Read once, so the whole frame is processed with the same settings
+        DetectorSettings frameSettings = settings.get();
+        FusedMotionKernel kernel = fusedKernel;
+        boolean display = frameRenderer != null || liveStream != null;
+        long startNanos = System.nanoTime();
+        Mat diffFrame = buffers.getDiffFrame();
+        if (kernel != null) {
+            // The kernel only keeps the thresholded diff if asked before the pass, and the heatmap may need it after
+            if (!kernel.update(currFrame, frameSettings.getThreshold(), display || Config.HEATMAP_ENABLED)) {
+                return false;
+            }
+        } else {
+            if (!buffers.isPrevFrameValid(currFrame)) {
                 // This is the first frame of the current capture, and there is no previous frame to diff against
-                prevFrame = currFrame;
-                return;
+                return false;
             }
-
-            Mat diffFrame = new Mat();
-            Core.absdiff(currFrame, prevFrame, diffFrame);
-            Imgproc.threshold(diffFrame, diffFrame, thresholdSliderValue, 255, Imgproc.THRESH_BINARY);
-
-            Moments moments = Imgproc.moments(diffFrame);
-            double diffFrameIntensitySum = moments.m00;
-            Point centroid = new Point(moments.m10 / diffFrameIntensitySum, moments.m01 / diffFrameIntensitySum);
-
-            Mat displayFrame = new Mat();
-            Core.bitwise_not(diffFrame, displayFrame);
-            Imgproc.cvtColor(displayFrame, displayFrame, COLOR_GRAY2BGR);
-            Imgproc.resize(displayFrame, displayFrame, new Size(scaleFactor * displayFrame.width(),
-                    scaleFactor * displayFrame.height()));
-
-            Point scaledCentroid = centroid;
-            scaledCentroid.set(new double[]{scaleFactor * scaledCentroid.x, scaleFactor * scaledCentroid.y});
-            Imgproc.circle(displayFrame, scaledCentroid, 3, RED, 4);
-
-            Image imageToShow = Utils.mat2Image(displayFrame);
-            setChanged();
-            notifyObservers(new FrameData(imageToShow, trainDetected, diffFrameIntensitySum));
-
-            prevFrame = currFrame;
-
-            if (calibrating) {
-                return;
+            Core.absdiff(currFrame, buffers.getPrevFrame(), diffFrame);
+            Imgproc.threshold(diffFrame, diffFrame, frameSettings.getThreshold(), 255, Imgproc.THRESH_BINARY);
+        }
+        long diffNanos = System.nanoTime();
+        metrics.record(FrameMetrics.Stage.DIFF_THRESHOLD, diffNanos - startNanos);
+
+        // The area of a detection pixel in full resolution pixels, so the tolerance applies at any resolution
+        double detectionScale = buffers.getDetectionScale();
+        double pixelArea = detectionScale * detectionScale;
+
+        CaptureDevice device = getCaptureDevice();
+        boolean calibrating = frameSettings.isCalibrating();
+        boolean quiet = false;
+        if (detectionState.isIdle() && !calibrating) {
+            // The thresholded diff is binary, so its pixel count gives m00 far more cheaply than the moments
+            double m00 = kernel != null ? kernel.getM00() : 255.0 * Core.countNonZero(diffFrame);
+            double intensitySum = m00 / pixelArea;
+            if (intensitySum <= frameSettings.getDetectionTolerance() * Config.ADAPTIVE_PRETRIGGER_FRACTION) {
+                quiet = true;
+                diffFrameIntensitySum = intensitySum;
+                lastQuietFrameNanos = startNanos;
             }
+        }
+        if (device.isAdaptive() && !calibrating) {
+            if (quiet) {
+                metrics.record(FrameMetrics.Stage.MOMENTS, System.nanoTime() - diffNanos);
+                return false;
+            }
+            device.requestBurst();
+        }
 
-            if (diffFrameIntensitySum > detectionToleranceSliderValue) {
-                trainDetected = true;
-                trainDetectedFrames = Math.min(trainDetectedFrames + 1, 3);
-                if (!trackingCentroids && trainDetectedFrames == 3) {
-                    trackingCentroids = true;
+        Point centroid = buffers.getCentroid();
+        long momentsNanos;
+        if (quiet) {
+            // Nothing is tracked and the state would not change, so the frame is only displayed, with no centroid
+            centroid.x = Double.NaN;
+            centroid.y = Double.NaN;
+            if (kernel != null && display) {
+                kernel.writeMask(diffFrame);
+            }
+            momentsNanos = System.nanoTime();
+            metrics.record(FrameMetrics.Stage.MOMENTS, momentsNanos - diffNanos);
+        } else {
+            double m00;
+            double m10;
+            double m01;
+            if (kernel != null) {
+                m00 = kernel.getM00();
+                m10 = kernel.getM10();
+                m01 = kernel.getM01();
+                if (display) {
+                    kernel.writeMask(diffFrame);
                 }
             } else {
-                trainDetected = false;
-                trainDetectedFrames = Math.max(trainDetectedFrames - 1, 0);
-                if (trackingCentroids && trainDetectedFrames == 0) {
-                    // calculate direction
-                    int direction = 0;
-                    for (int i = 1; i < centroidList.size(); i++) {
-                        if (Double.isNaN(centroidList.get(i - 1)) || Double.isNaN(centroidList.get(i))) {
-                            LOG.debug(timestamp + ": skipping NaN calc");
-                            continue;
-                        }
-                        if (centroidList.get(i) > centroidList.get(i - 1)) {
-                            direction++;
-                        } else {
-                            direction--;
-                        }
+                Moments moments = Imgproc.moments(diffFrame);
+                m00 = moments.m00;
+                m10 = moments.m10;
+                m01 = moments.m01;
+            }
+            diffFrameIntensitySum = m00 / pixelArea;
+            centroid.x = buffers.toFullResolution(m10 / m00);
+            centroid.y = buffers.toFullResolution(m01 / m00);
+            momentsNanos = System.nanoTime();
+            metrics.record(FrameMetrics.Stage.MOMENTS, momentsNanos - diffNanos);
+
+            if (!calibrating) {
+                boolean wasTracking = detectionState.isTrackingCentroids();
+                updateDetectionState(frameSettings, frameSequence, frameTimeNanos, frameTimeMillis, centroid);
+                if (!wasTracking) {
+                    if (detectionState.isTrackingCentroids()) {
+                        device.recordDetectionLatency(startNanos - lastQuietFrameNanos);
+                    } else if (!detectionState.isTrainDetected()) {
+                        lastQuietFrameNanos = startNanos;
                     }
-                    String dir = direction > 0 ? "East" : "West";
-                    LOG.info(timestamp + ": Train detected moving " + dir);
-                    ResultWriter.getInstance().writeResultLine(timestamp, location, thresholdSliderValue,
-                            detectionToleranceSliderValue, dir);
-
-                    trackingCentroids = false;
-                    centroidList = new ArrayList<>();
+                }
+                if (Config.HEATMAP_ENABLED && detectionState.isTrainDetected()) {
+                    if (kernel != null && !display) {
+                        kernel.writeMask(diffFrame);
+                    }
+                    heatmap.accumulate(diffFrame, Config.HEATMAP_ALPHA);
                 }
             }
-            LOG.debug(String.format("%s, %.0f, %b, %d, %.1f, %.1f, %b", timestamp, diffFrameIntensitySum, trainDetected,
-                    trainDetectedFrames, centroid.x, centroid.y, trackingCentroids));
+        }
+        long endNanos = System.nanoTime();
+
+        if (telemetryRecorder != null) {
+            int state = (detectionState.isTrainDetected() ? TelemetryRecorder.STATE_TRAIN_DETECTED : 0)
+                    | (detectionState.isTrackingCentroids() ? TelemetryRecorder.STATE_TRACKING_CENTROIDS : 0)
+                    | (calibrating ? TelemetryRecorder.STATE_CALIBRATING : 0)
+                    | (detectionState.getTrainDetectedFrames() << TelemetryRecorder.STATE_DETECTED_FRAMES_SHIFT);
+            telemetryRecorder.record(telemetrySequence++, startNanos, diffFrameIntensitySum, centroid.x, centroid.y,
+                    state, (int) (diffNanos - startNanos), (int) (momentsNanos - diffNanos),
+                    (int) (endNanos - momentsNanos), (int) (endNanos - startNanos));
+        }
+        return true;
+    }
 
-            if (trainDetected) {
-                Imgcodecs.imwrite(fileName, currFrame);
+    /**
+     * Advance the {@link DetectionState} with this frame's intensity sum, and write a result once a tracked train has
+     * left.
+     */
+    private void updateDetectionState(DetectorSettings frameSettings, long frameSequence, long frameTimeNanos,
+                                      long frameTimeMillis, Point centroid) {
+        boolean wasTrainDetected = detectionState.isTrainDetected();
+        TrainEvent event = detectionState.update(diffFrameIntensitySum, frameSettings.getDetectionTolerance(),
+                centroid.x, TimeUnit.NANOSECONDS.toMillis(frameTimeNanos));
+        if (detectionState.isTrainDetected() && !wasTrainDetected) {
+            events.publish(new DetectionStarted(location, frameSequence, frameTimeMillis));
+        }
+        if (event != null) {
+            metrics.eventDetected();
+            String timestamp = Timestamps.format(frameTimeMillis);
+            LOG.info(String.format("%s: Train detected moving %s at %.0f px/s", timestamp, event.getDirection(),
+                    event.getSpeedPixelsPerSecond()));
+            ResultWriter.getInstance().writeResultLine(timestamp, location, frameSettings.getThreshold(),
+                    frameSettings.getDetectionTolerance(), event.getDirection(), event.getSpeedPixelsPerSecond(),
+                    event.getLengthPixels(captureBox.width), event.getDwellMillis());
+            eventCorrelator.onEvent(location, timestamp, event, frameTimeMillis);
+            if (events.hasSubscribers(DetectionEnded.class)) {
+                events.publish(new DetectionEnded(location, timestamp, frameTimeMillis, event.getDirection(),
+                        event.getSpeedPixelsPerSecond(), event.getLengthPixels(captureBox.width),
+                        event.getDwellMillis()));
             }
+            EventStore eventStore = EventStore.getShared();
+            if (eventStore != null) {
+                try {
+                    eventStore.append(frameTimeMillis, location, frameSettings.getThreshold(),
+                            frameSettings.getDetectionTolerance(), event.getDirection(),
+                            event.getSpeedPixelsPerSecond(), event.getLengthPixels(captureBox.width),
+                            event.getDwellMillis());
+                } catch (IOException e) {
+                    LOG.warn("Unable to store event for " + location + ": " + e);
+                }
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(String.format("%s, %.0f, %b, %d, %.1f, %.1f, %b", Timestamps.format(frameTimeMillis),
+                    diffFrameIntensitySum, detectionState.isTrainDetected(), detectionState.getTrainDetectedFrames(),
+                    centroid.x, centroid.y, detectionState.isTrackingCentroids()));
+        }
+    }
 
-            // TODO: May be able to skip centroid calculation on frames where we aren't tracking centroids
-            if (trackingCentroids) {
-                centroidList.add(centroid.x);
+    /**
+     * Make the given frame the previous frame for the next diff.
+     *
+     * @return the buffer which previously held the previous frame, now free for reuse
+     */
+    Mat exchangePrevFrame(Mat currFrame) {
+        return buffers.exchangePrevFrame(currFrame);
+    }
+
+    Mat getDiffFrame() {
+        return buffers.getDiffFrame();
+    }
+
+    Point getCentroid() {
+        return buffers.getCentroid();
+    }
+
+    double getDiffFrameIntensitySum() {
+        return diffFrameIntensitySum;
+    }
+
+    boolean isTrainDetected() {
+        return detectionState.isTrainDetected();
+    }
+
+    /**
+     * The render stage. Draw the thresholded diff and its centroid, hand it to the renderer and the live view, and
+     * notify observers. The diff frame is inverted in place.
+     */
+    void renderFrame(Mat diffFrame, double centroidX, double centroidY, boolean trainDetected,
+                     double diffFrameIntensitySum, long frameSequence, long frameTimeNanos) {
+        long startNanos = System.nanoTime();
+        LiveStream activeLiveStream = liveStream;
+        if (frameRenderer != null || activeLiveStream != null) {
+            Mat displayFrame = buffers.getDisplayFrame();
+            Mat scaledDisplayFrame = buffers.getScaledDisplayFrame();
+            // Invert in place and convert into a separate buffer, as an in place change of channel count reallocates.
+            // Converting straight to BGRA lets the renderer copy the pixels without a further conversion.
+            Core.bitwise_not(diffFrame, diffFrame);
+            Imgproc.cvtColor(diffFrame, displayFrame, COLOR_GRAY2BGRA);
+            Imgproc.resize(displayFrame, scaledDisplayFrame, buffers.getScaledDisplaySize());
+
+            // There is no centroid on a quiet frame, or one without motion
+            if (!Double.isNaN(centroidX) && !Double.isNaN(centroidY)) {
+                Point scaledCentroid = buffers.getScaledCentroid();
+                scaledCentroid.x = scaleFactor * centroidX;
+                scaledCentroid.y = scaleFactor * centroidY;
+                Imgproc.circle(scaledDisplayFrame, scaledCentroid, 3, RED, 4);
             }
-        };
 
-        timer = Executors.newSingleThreadScheduledExecutor();
-        long period = Long.divideUnsigned(1000, Config.FRAMES_PER_SECOND);
-        timer.scheduleAtFixedRate(frameGrabber, 500, period, TimeUnit.MILLISECONDS);
-        activeCaptures++;
+            if (frameRenderer != null) {
+                frameRenderer.write(scaledDisplayFrame);
+            }
+            if (activeLiveStream != null) {
+                activeLiveStream.publishFrame(scaledDisplayFrame);
+            }
+        }
+        long renderNanos = System.nanoTime();
+        metrics.record(FrameMetrics.Stage.RENDER, renderNanos - startNanos);
+
+        DetectionPipeline activePipeline = pipeline;
+        FrameData frameData;
+        if (activePipeline == null) {
+            frameData = new FrameData(frameSequence, frameTimeNanos, trainDetected, diffFrameIntensitySum);
+        } else {
+            frameData = new FrameData(frameSequence, frameTimeNanos, trainDetected, diffFrameIntensitySum,
+                    activePipeline.getQueuedFrames(), activePipeline.getDroppedFrames());
+        }
+        events.publish(frameData);
+        metrics.record(FrameMetrics.Stage.NOTIFY, System.nanoTime() - renderNanos);
     }
 
     /**
-     * Read a single frame.
+     * The persistence stage, run for every region frame after detection. With clip recording the frame is handed to the
+     * {@link ClipRecorder}, which keeps it for the pre-roll or adds it to the current clip. Otherwise a frame in which
+     * a train was detected is handed to the {@link SnapshotEncoder}. Both copy the frame and save it in the background.
      */
-    public synchronized void showPreviewImage() {
-        if (activeCaptures == 0) {
-            capture.open(Config.CAMERA_ID);
-            capture.set(CV_CAP_PROP_FRAME_WIDTH, Config.DISPLAY_WIDTH_PIXELS);
-            capture.set(CV_CAP_PROP_FRAME_HEIGHT, Config.DISPLAY_HEIGHT_PIXELS);
+    void persistFrame(Mat frame, long frameTimeNanos, long frameTimeMillis) {
+        long startNanos = System.nanoTime();
+        if (clipRecorder != null) {
+            clipRecorder.offer(frame, frameTimeNanos, frameTimeMillis, detectionState.isTrainDetected());
+        } else if (persistFrames && detectionState.isTrainDetected()) {
+            // Every region of a camera shares the frame's time, so the location keeps their snapshots apart
+            String fileName = Timestamps.format(frameTimeMillis) + " " + location + "." + Config.IMAGE_EXTENSION;
+            SnapshotEncoder.getInstance().submit(frame, fileName);
+        } else {
+            return;
         }
+        metrics.record(FrameMetrics.Stage.PERSIST, System.nanoTime() - startNanos);
+    }
 
+    /**
+     * Read a single frame.
+     */
+    public void showPreviewImage() {
         Mat frame = new Mat();
-        try {
-            capture.read(frame);
-        } catch (Exception e) {
-            LOG.warn("Exception while reading frame: " + e);
-        }
+        getCaptureDevice().readFrame(frame);
 
-        Imgproc.rectangle(frame, point1, point2, GREEN, 5);
-        Image imageToShow = Utils.mat2Image(frame);
-        setChanged();
-        notifyObservers(new FrameData(imageToShow));
+        Rect box = settings.get().getBoundingBox();
+        Imgproc.rectangle(frame, box.tl(), box.br(), GREEN, 5);
+        frameRenderer.write(frame);
+        frame.release();
+        events.publish(new FrameData());
     }
 
     /**
-     * Stop the acquisition from the camera and release all the resources.
+     * Stop the acquisition from the camera and release all the resources. If the detector is still starting, the stop
+     * is left for the starting thread to carry out once it is running. If the detector is not running, only the device
+     * is closed when forced.
      */
-    public synchronized void stopAcquisition(boolean forceStop) {
-        activeCaptures--;
-        if ((capture.isOpened() && activeCaptures == 0) || forceStop) {
-            capture.release();
+    public void stopAcquisition(boolean forceStop) {
+        CaptureDevice device = getCaptureDevice();
+        while (!lifecycle.compareAndSet(Lifecycle.RUNNING, Lifecycle.STOPPING)) {
+            if (lifecycle.get() != Lifecycle.STARTING) {
+                if (forceStop) {
+                    device.close();
+                }
+                return;
+            }
+            forceStopPending = forceStop;
+            stopPending.set(true);
+            if (lifecycle.get() == Lifecycle.STARTING) {
+                // capture() checks for the pending stop after it sets the detector running
+                return;
+            }
+            // Started since the check, so stop it here. If capture() also sees the pending stop, only one stops it.
         }
-
-        if (timer != null && !timer.isShutdown()) {
-            try {
-                timer.shutdownNow();
-            } catch (SecurityException e) {
-                LOG.warn("Exception in stopping the frame capture, trying to release the camera now... " + e);
+        stopPending.set(false);
+        // Once unregistered the device is no longer running this detector, so its buffers can be freed
+        release();
+        if (forceStop) {
+            device.close();
+        }
+        if (Config.HEATMAP_ENABLED) {
+            Rect suggestedBox = getSuggestedBoundingBox();
+            if (suggestedBox != null) {
+                LOG.info(location + " suggested bounding box " + suggestedBox + " from " + heatmap.getFrames()
+                        + " frames");
             }
         }
+        lifecycle.set(Lifecycle.STOPPED);
+    }
+
+    /**
+     * Release everything acquired by starting, which may have only partly succeeded.
+     */
+    private void release() {
+        getCaptureDevice().unregister(this);
+        if (pipeline != null) {
+            pipeline.stop();
+            pipeline = null;
+        }
+        if (clipRecorder != null) {
+            clipRecorder.close();
+            clipRecorder = null;
+        }
+        if (liveDataSubscription != null) {
+            liveDataSubscription.cancel();
+            liveDataSubscription = null;
+        }
+        if (liveDetectionSubscription != null) {
+            liveDetectionSubscription.cancel();
+            liveDetectionSubscription = null;
+        }
+        if (liveStream != null) {
+            LiveViewServer.getInstance().closeStream(liveStream);
+            liveStream = null;
+        }
+        metrics.unregister();
+        if (telemetryRecorder != null) {
+            telemetryRecorder.close();
+            telemetryRecorder = null;
+        }
+        buffers.release();
+        fusedKernel = null;
     }
-}
\ No newline at end of file
+}
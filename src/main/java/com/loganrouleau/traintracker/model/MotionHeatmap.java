@@ -0,0 +1,118 @@
+package com.loganrouleau.traintracker.model;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A long term heatmap of where a detector's region sees motion, built up from the thresholded diffs of frames in which
+ * a train is detected. Each frame is folded into a floating point running average in place, so accumulating never
+ * allocates and costs a single pass over the region. Over many trains the heatmap picks out the track, and can suggest
+ * a tighter bounding box around it which excludes the parts of the region trains never cross.
+ * <p>
+ * The heatmap belongs to one region geometry, and is cleared if the region or detection resolution changes. Accumulated
+ * on the detection thread and read from any other, so the public methods are synchronized.
+ */
+class MotionHeatmap {
+    private final Mat heat = new Mat();
+    private Rect region;
+    private double detectionScale;
+    private long frames = 0;
+
+    /**
+     * Prepare for frames of the given region at the given detection resolution, keeping what has been accumulated if
+     * they are unchanged since the last capture.
+     */
+    synchronized void prepare(Rect region, double detectionScale) {
+        if (!region.equals(this.region) || detectionScale != this.detectionScale) {
+            this.region = region.clone();
+            this.detectionScale = detectionScale;
+            heat.release();
+            frames = 0;
+        }
+    }
+
+    /**
+     * Fold a thresholded diff frame into the heatmap, weighting it by alpha against everything before.
+     */
+    synchronized void accumulate(Mat diffFrame, double alpha) {
+        if (heat.rows() != diffFrame.rows() || heat.cols() != diffFrame.cols()) {
+            heat.create(diffFrame.rows(), diffFrame.cols(), CvType.CV_32FC1);
+            heat.setTo(new Scalar(0));
+            frames = 0;
+        }
+        Imgproc.accumulateWeighted(diffFrame, heat, alpha);
+        frames++;
+    }
+
+    /**
+     * The number of frames accumulated since the heatmap was last cleared.
+     */
+    synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Suggest a bounding box covering every pixel whose heat is at least the given fraction of the hottest pixel's,
+     * with a margin, in full resolution frame coordinates and within the region. Allocates a copy of the heatmap, so is
+     * meant to be called occasionally rather than per frame.
+     *
+     * @return the suggested box, or null if nothing has been accumulated
+     */
+    synchronized Rect suggestBoundingBox(double coverageFraction, int marginPixels) {
+        if (frames == 0) {
+            return null;
+        }
+        int rows = heat.rows();
+        int cols = heat.cols();
+        float[] values = new float[rows * cols];
+        heat.get(0, 0, values);
+        return suggestBoundingBox(values, rows, cols, region, detectionScale, coverageFraction, marginPixels);
+    }
+
+    /**
+     * Suggest a bounding box from heat values at the detection resolution, row by row, of the given region.
+     *
+     * @return the suggested box, or null if there is no heat at all
+     */
+    static Rect suggestBoundingBox(float[] values, int rows, int cols, Rect region, double detectionScale,
+                                   double coverageFraction, int marginPixels) {
+        float peak = 0;
+        for (float value : values) {
+            peak = Math.max(peak, value);
+        }
+        if (peak <= 0) {
+            return null;
+        }
+        float cutoff = (float) (coverageFraction * peak);
+        int minCol = cols;
+        int maxCol = -1;
+        int minRow = rows;
+        int maxRow = -1;
+        for (int row = 0; row < rows; row++) {
+            int offset = row * cols;
+            for (int col = 0; col < cols; col++) {
+                if (values[offset + col] >= cutoff) {
+                    minCol = Math.min(minCol, col);
+                    maxCol = Math.max(maxCol, col);
+                    minRow = Math.min(minRow, row);
+                    maxRow = Math.max(maxRow, row);
+                }
+            }
+        }
+
+        // Each detection pixel spans 1 / detectionScale full resolution pixels
+        int x1 = Math.max(0, (int) Math.floor(minCol / detectionScale) - marginPixels);
+        int y1 = Math.max(0, (int) Math.floor(minRow / detectionScale) - marginPixels);
+        int x2 = Math.min(region.width, (int) Math.ceil((maxCol + 1) / detectionScale) + marginPixels);
+        int y2 = Math.min(region.height, (int) Math.ceil((maxRow + 1) / detectionScale) + marginPixels);
+        return new Rect(region.x + x1, region.y + y1, x2 - x1, y2 - y1);
+    }
+
+    synchronized void release() {
+        heat.release();
+        frames = 0;
+    }
+}
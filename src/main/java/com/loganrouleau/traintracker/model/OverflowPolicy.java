@@ -0,0 +1,19 @@
+package com.loganrouleau.traintracker.model;
+
+/**
+ * What a {@link PipelineStage} does with a new item when its queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait for space in the queue, pushing back on the stage before it. Nothing is ever dropped.
+     */
+    BLOCK,
+    /**
+     * Discard the oldest queued item to make room, so the stage always works on the most recent data.
+     */
+    DROP_OLDEST,
+    /**
+     * Discard the new item, keeping what is already queued.
+     */
+    DROP_NEWEST
+}
@@ -0,0 +1,87 @@
+package com.loganrouleau.traintracker.model;
+
+import org.opencv.core.Mat;
+
+/**
+ * A pooled frame passed between {@link PipelineStage}s, along with the per-frame values the next stage needs. The Mat
+ * is reused for as long as the frame stays in its {@link FramePool}.
+ */
+class PipelineFrame {
+    private Mat mat = new Mat();
+    private long frameSequence;
+    private long frameTimeNanos;
+    private long frameTimeMillis;
+    private String fileName;
+    private boolean trainDetected;
+    private double diffFrameIntensitySum;
+    private double centroidX;
+    private double centroidY;
+
+    Mat getMat() {
+        return mat;
+    }
+
+    /**
+     * Exchange the frame's Mat for another, so that a stage can keep the pixels without copying them.
+     *
+     * @return the Mat previously held by this frame
+     */
+    Mat swapMat(Mat other) {
+        Mat previous = mat;
+        mat = other;
+        return previous;
+    }
+
+    long getFrameSequence() {
+        return frameSequence;
+    }
+
+    long getFrameTimeNanos() {
+        return frameTimeNanos;
+    }
+
+    long getFrameTimeMillis() {
+        return frameTimeMillis;
+    }
+
+    void setFrameTime(long frameSequence, long frameTimeNanos, long frameTimeMillis) {
+        this.frameSequence = frameSequence;
+        this.frameTimeNanos = frameTimeNanos;
+        this.frameTimeMillis = frameTimeMillis;
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    boolean isTrainDetected() {
+        return trainDetected;
+    }
+
+    double getDiffFrameIntensitySum() {
+        return diffFrameIntensitySum;
+    }
+
+    double getCentroidX() {
+        return centroidX;
+    }
+
+    double getCentroidY() {
+        return centroidY;
+    }
+
+    void setResult(boolean trainDetected, double diffFrameIntensitySum, double centroidX, double centroidY) {
+        this.trainDetected = trainDetected;
+        this.diffFrameIntensitySum = diffFrameIntensitySum;
+        this.centroidX = centroidX;
+        this.centroidY = centroidY;
+    }
+
+    void release() {
+        mat.release();
+    }
+}
@@ -0,0 +1,160 @@
+package com.loganrouleau.traintracker.model;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * One stage of a {@link DetectionPipeline}. Items are offered to a bounded queue, which is drained in order by a single
+ * worker thread. When the queue is full the stage's {@link OverflowPolicy} decides whether the producer waits or an
+ * item is dropped. Every item, whether handled or dropped, is passed to the recycler afterwards. Thread safe.
+ */
+class PipelineStage<T> {
+    private static final Logger LOG = LogManager.getLogger(PipelineStage.class);
+
+    private final String name;
+    private final BlockingQueue<T> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final Consumer<T> handler;
+    private final Consumer<T> recycler;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong handledCount = new AtomicLong();
+    private ExecutorService worker;
+
+    PipelineStage(String name, int capacity, OverflowPolicy overflowPolicy, Consumer<T> handler,
+                  Consumer<T> recycler) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.handler = handler;
+        this.recycler = recycler;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    long getHandledCount() {
+        return handledCount.get();
+    }
+
+    /**
+     * Count an item which was dropped before it could be offered, for example because no pooled frame was free.
+     */
+    void countDropped() {
+        droppedCount.incrementAndGet();
+    }
+
+    /**
+     * Queue an item for the worker thread, applying the overflow policy if the queue is full.
+     *
+     * @return false if the item was dropped rather than queued
+     */
+    boolean offer(T item) {
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(item);
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    drop(item);
+                    return false;
+                }
+            case DROP_OLDEST:
+                while (!queue.offer(item)) {
+                    T oldest = queue.poll();
+                    if (oldest != null) {
+                        drop(oldest);
+                    }
+                }
+                return true;
+            case DROP_NEWEST:
+            default:
+                if (queue.offer(item)) {
+                    return true;
+                }
+                drop(item);
+                return false;
+        }
+    }
+
+    synchronized void start() {
+        if (worker != null) {
+            return;
+        }
+        worker = Executors.newSingleThreadExecutor();
+        worker.execute(() -> {
+            Thread.currentThread().setName(name);
+            while (!Thread.currentThread().isInterrupted()) {
+                T item;
+                try {
+                    item = queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                try {
+                    handler.accept(item);
+                    handledCount.incrementAndGet();
+                } catch (Exception e) {
+                    LOG.warn("Exception in pipeline stage " + name + ": " + e);
+                } finally {
+                    recycler.accept(item);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop the worker thread and recycle anything still queued. Once this returns the handler is no longer running.
+     */
+    synchronized void stop() {
+        if (worker == null) {
+            return;
+        }
+        worker.shutdownNow();
+        try {
+            if (!worker.awaitTermination(1, TimeUnit.SECONDS)) {
+                LOG.warn("Pipeline stage " + name + " did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+
+        T item;
+        while ((item = queue.poll()) != null) {
+            recycler.accept(item);
+        }
+    }
+
+    private void drop(T item) {
+        droppedCount.incrementAndGet();
+        recycler.accept(item);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: queued %d, handled %d, dropped %d", name, getQueueDepth(), getHandledCount(),
+                getDroppedCount());
+    }
+}
@@ -0,0 +1,90 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A named region of a camera's frame to detect motion in. Written as {@code NAME[@CAMERA]:x1,y1,x2,y2}, where the
+ * camera defaults to the configured camera id.
+ */
+public final class Region {
+    private final String name;
+    private final int cameraId;
+    private final int x1;
+    private final int y1;
+    private final int x2;
+    private final int y2;
+
+    public Region(String name, int cameraId, int x1, int y1, int x2, int y2) {
+        this.name = name;
+        this.cameraId = cameraId;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+    }
+
+    public static Region parse(String region) {
+        String[] nameAndBox = region.trim().split(":");
+        if (nameAndBox.length != 2) {
+            throw new IllegalArgumentException("Expected NAME[@CAMERA]:x1,y1,x2,y2 but got " + region);
+        }
+        String name = nameAndBox[0];
+        int cameraId = Config.CAMERA_ID;
+        int at = name.indexOf('@');
+        if (at >= 0) {
+            cameraId = Integer.parseInt(name.substring(at + 1));
+            name = name.substring(0, at);
+        }
+        String[] box = nameAndBox[1].split(",");
+        if (box.length != 4) {
+            throw new IllegalArgumentException("Expected 4 bounding box coordinates in " + region);
+        }
+        return new Region(name, cameraId, Integer.parseInt(box[0].trim()), Integer.parseInt(box[1].trim()),
+                Integer.parseInt(box[2].trim()), Integer.parseInt(box[3].trim()));
+    }
+
+    /**
+     * Parse a list of regions separated by semicolons, ignoring empty entries.
+     */
+    public static List<Region> parseList(String regions) {
+        List<Region> parsed = new ArrayList<>();
+        for (String region : regions.split(";")) {
+            if (!region.trim().isEmpty()) {
+                parsed.add(parse(region));
+            }
+        }
+        return parsed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCameraId() {
+        return cameraId;
+    }
+
+    public int getX1() {
+        return x1;
+    }
+
+    public int getY1() {
+        return y1;
+    }
+
+    public int getX2() {
+        return x2;
+    }
+
+    public int getY2() {
+        return y2;
+    }
+
+    @Override
+    public String toString() {
+        return name + "@" + cameraId + ":" + x1 + "," + y1 + "," + x2 + "," + y2;
+    }
+}
@@ -1,31 +1,65 @@
 package com.loganrouleau.traintracker.model;
 
 import com.loganrouleau.traintracker.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Used by the model for data which is written directly to the output csv. Thread safe.
+ * <p>
+ * Callers only add the result to a lock-free queue. A single writer thread drains the queue and commits everything
+ * pending in one write, either once the flush interval passes or as soon as enough lines are waiting. Each commit is
+ * forced to disk, so a crash loses at most one flush interval of results. A new file is started each day and whenever
+ * the current file reaches the maximum size.
+ * <p>
+ * Speed and length are in metres per second and metres if a metres per pixel calibration is configured, otherwise in
+ * pixels per second and pixels of the full resolution frame. They are left empty if the speed could not be measured.
+ * <p>
+ * Trains correlated across regions by the {@link EventCorrelator} are written the same way to a companion file with the
+ * same name and a {@value #TRAINS_SUFFIX} suffix, which is only created once there is a train to write.
  */
 public class ResultWriter {
+    private static final Logger LOG = LogManager.getLogger(ResultWriter.class);
+    private static final String HEADER = "Timestamp,Location,Threshold Slider Value,Detection Tolerance Slider Value,"
+            + "Direction,Speed,Length,Dwell Seconds" + System.lineSeparator();
+    private static final String TRAINS_HEADER = "Status,Direction,Entry Location,Entry Timestamp,Exit Location,"
+            + "Exit Timestamp,Transit Seconds" + System.lineSeparator();
+    private static final String TRAINS_SUFFIX = "-trains";
     private static ResultWriter resultWriter = new ResultWriter();
-    private static FileWriter fileWriter;
-    private static final String RESULT_LINE_FORMAT = "%n%s,%s,%.0f,%.0f,%s";
 
-    static {
-        try {
-            fileWriter = new FileWriter("C:\\Users\\lroul\\projects\\train-tracker\\results\\" + LocalDateTime.now().format(DateTimeFormatter.ofPattern(Config.TIMESTAMP_FORMAT)) + ".csv");
-            fileWriter.write(String.format("%s,%s,%s,%s,%s", "Timestamp", "Location", "Threshold Slider Value",
-                    "Detection Tolerance Slider Value", "Direction"));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
+    private final Queue<ResultLine> pendingLines = new ConcurrentLinkedQueue<>();
+    private final Queue<CorrelatedTrain> pendingTrains = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final StringBuilder commitBuffer = new StringBuilder();
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+
+    // Owned by the writer thread
+    private final ResultFile resultFile = new ResultFile("", HEADER);
+    private final ResultFile trainsFile = new ResultFile(TRAINS_SUFFIX, TRAINS_HEADER);
+    private String fileName;
 
     private ResultWriter() {
+        writerThread = new Thread(this::writeResults, "result-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
     }
 
     public static ResultWriter getInstance() {
@@ -33,22 +67,256 @@ public class ResultWriter {
     }
 
     public void writeResultLine(String timestamp, String location, double thresholdValue, double detectionValue,
-                                String direction) {
-        try {
-            fileWriter.write(String.format(RESULT_LINE_FORMAT, timestamp, location, thresholdValue, detectionValue,
-                    direction));
-        } catch (IOException e) {
-            e.printStackTrace();
+                                String direction, double speedPixelsPerSecond, double lengthPixels,
+                                long dwellMillis) {
+        if (closed) {
+            LOG.warn("Result writer is closed, dropping result: " + timestamp + " " + location + " " + direction);
+            return;
+        }
+        pendingLines.add(new ResultLine(timestamp, location, thresholdValue, detectionValue, direction,
+                speedPixelsPerSecond, lengthPixels, dwellMillis));
+        linePending();
+    }
+
+    public void writeTrainLine(CorrelatedTrain train) {
+        if (closed) {
+            LOG.warn("Result writer is closed, dropping train: " + train.getStatus() + " " + train.getDirection());
+            return;
+        }
+        pendingTrains.add(train);
+        linePending();
+    }
+
+    private void linePending() {
+        if (pendingCount.incrementAndGet() == Config.RESULT_FLUSH_LINES) {
+            // Enough lines are waiting that the writer should commit them now rather than at the end of the interval
+            LockSupport.unpark(writerThread);
         }
     }
 
+    /**
+     * Commit all pending results and close the current file.
+     */
     public void close() {
+        closed = true;
+        LockSupport.unpark(writerThread);
         try {
-            if (fileWriter != null) {
-                fileWriter.close();
-            }
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive()) {
+            LOG.warn("Result writer did not finish in time");
+        }
+    }
+
+    private void writeResults() {
+        long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Config.RESULT_FLUSH_INTERVAL_MILLIS);
+        while (!closed) {
+            LockSupport.parkNanos(this, flushIntervalNanos);
+            commit();
+        }
+        // A caller may have queued a result just before seeing the closed flag
+        commit();
+        resultFile.close();
+        trainsFile.close();
+    }
+
+    /**
+     * Write everything pending as a single group per file, then flush it to disk.
+     */
+    private void commit() {
+        boolean rotate = resultFile.needsRotation() || trainsFile.needsRotation();
+        if (rotate) {
+            // Both files rotate together so a train file always matches the result file alongside it
+            resultFile.close();
+            trainsFile.close();
+            fileName = null;
+        }
+
+        commitBuffer.setLength(0);
+        int lines = 0;
+        for (ResultLine line = pendingLines.poll(); line != null; line = pendingLines.poll()) {
+            line.appendTo(commitBuffer);
+            lines++;
+        }
+        commit(resultFile, lines);
+
+        commitBuffer.setLength(0);
+        int trains = 0;
+        for (CorrelatedTrain train = pendingTrains.poll(); train != null; train = pendingTrains.poll()) {
+            appendTrain(commitBuffer, train);
+            trains++;
+        }
+        commit(trainsFile, trains);
+        // Only what was taken off the queues, as lines queued since still count towards the next early flush
+        pendingCount.addAndGet(-(lines + trains));
+    }
+
+    /**
+     * Write the commit buffer to a file, opening the file if needed.
+     */
+    private void commit(ResultFile file, int lines) {
+        if (lines == 0) {
+            return;
+        }
+        try {
+            file.write(commitBuffer, getFileName());
         } catch (IOException e) {
-            e.printStackTrace();
+            LOG.error("Unable to write " + lines + " results: " + e);
+            LOG.error(commitBuffer.toString());
+            file.close();
+        }
+    }
+
+    /**
+     * The number of results queued and not yet taken by the writer thread.
+     */
+    int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * The name shared by the current result and train files, chosen when the first of them is opened.
+     */
+    private String getFileName() throws IOException {
+        if (fileName != null) {
+            return fileName;
+        }
+        Path directory = Paths.get(Config.RESULT_OUTPUT_DIRECTORY);
+        Files.createDirectories(directory);
+        String name = LocalDateTime.now().format(DateTimeFormatter.ofPattern(Config.TIMESTAMP_FORMAT));
+        String candidate = name;
+        for (int i = 1; Files.exists(directory.resolve(candidate + ".csv"))
+                || Files.exists(directory.resolve(candidate + TRAINS_SUFFIX + ".csv")); i++) {
+            // Several rotations within one timestamp tick would otherwise overwrite each other
+            candidate = name + "-" + i;
+        }
+        fileName = candidate;
+        return fileName;
+    }
+
+    private static void appendTrain(StringBuilder builder, CorrelatedTrain train) {
+        builder.append(train.getStatus()).append(',')
+                .append(train.getDirection()).append(',')
+                .append(train.getEntryLocation() == null ? "" : train.getEntryLocation()).append(',')
+                .append(train.getEntryTimestamp() == null ? "" : train.getEntryTimestamp()).append(',')
+                .append(train.getExitLocation() == null ? "" : train.getExitLocation()).append(',')
+                .append(train.getExitTimestamp() == null ? "" : train.getExitTimestamp()).append(',');
+        long transitMillis = train.getTransitMillis();
+        if (transitMillis >= 0) {
+            builder.append(transitMillis / 1000).append('.').append(transitMillis / 100 % 10);
+        }
+        builder.append(System.lineSeparator());
+    }
+
+    /**
+     * One of the csv files the writer appends to, rotated daily and at the maximum size.
+     */
+    private static class ResultFile {
+        private final String suffix;
+        private final String header;
+        private FileOutputStream fileOutputStream;
+        private Writer fileWriter;
+        private LocalDate fileDate;
+        private long fileBytes;
+
+        private ResultFile(String suffix, String header) {
+            this.suffix = suffix;
+            this.header = header;
+        }
+
+        private boolean needsRotation() {
+            return fileWriter != null
+                    && (!LocalDate.now().equals(fileDate) || fileBytes >= Config.RESULT_MAX_FILE_BYTES);
+        }
+
+        private void write(CharSequence lines, String name) throws IOException {
+            if (fileWriter == null) {
+                open(name);
+            }
+            fileWriter.append(lines);
+            fileWriter.flush();
+            fileOutputStream.getFD().sync();
+            // The encoded size, as non-ASCII locations take more bytes than chars
+            fileBytes = fileOutputStream.getChannel().size();
+        }
+
+        private void open(String name) throws IOException {
+            Path path = Paths.get(Config.RESULT_OUTPUT_DIRECTORY).resolve(name + suffix + ".csv");
+            fileOutputStream = new FileOutputStream(path.toFile(), true);
+            fileWriter = new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8);
+            // Appends if the file was already opened for this name, such as after a failed write
+            fileBytes = fileOutputStream.getChannel().size();
+            if (fileBytes == 0) {
+                fileWriter.write(header);
+            }
+            fileDate = LocalDate.now();
+            LOG.info("Writing results to " + path);
+        }
+
+        private void close() {
+            try {
+                if (fileWriter != null) {
+                    fileWriter.close();
+                }
+            } catch (IOException e) {
+                LOG.warn("Unable to close result file: " + e);
+            }
+            fileWriter = null;
+            fileOutputStream = null;
+        }
+    }
+
+    private static class ResultLine {
+        private final String timestamp;
+        private final String location;
+        private final double thresholdValue;
+        private final double detectionValue;
+        private final String direction;
+        private final double speedPixelsPerSecond;
+        private final double lengthPixels;
+        private final long dwellMillis;
+
+        private ResultLine(String timestamp, String location, double thresholdValue, double detectionValue,
+                           String direction, double speedPixelsPerSecond, double lengthPixels, long dwellMillis) {
+            this.timestamp = timestamp;
+            this.location = location;
+            this.thresholdValue = thresholdValue;
+            this.detectionValue = detectionValue;
+            this.direction = direction;
+            this.speedPixelsPerSecond = speedPixelsPerSecond;
+            this.lengthPixels = lengthPixels;
+            this.dwellMillis = dwellMillis;
+        }
+
+        /**
+         * Append the csv line, avoiding String.format since the writer formats whole batches at once.
+         */
+        private void appendTo(StringBuilder builder) {
+            builder.append(timestamp).append(',')
+                    .append(location).append(',')
+                    .append(Math.round(thresholdValue)).append(',')
+                    .append(Math.round(detectionValue)).append(',')
+                    .append(direction).append(',');
+            appendCalibrated(builder, speedPixelsPerSecond);
+            builder.append(',');
+            appendCalibrated(builder, lengthPixels);
+            builder.append(',')
+                    .append(dwellMillis / 1000).append('.').append(dwellMillis / 100 % 10)
+                    .append(System.lineSeparator());
+        }
+
+        /**
+         * Append a pixel measurement converted to metres if calibrated, to one decimal place.
+         */
+        private static void appendCalibrated(StringBuilder builder, double pixels) {
+            if (Double.isNaN(pixels)) {
+                return;
+            }
+            double value = Config.METRES_PER_PIXEL > 0 ? pixels * Config.METRES_PER_PIXEL : pixels;
+            long tenths = Math.round(value * 10);
+            builder.append(tenths / 10).append('.').append(tenths % 10);
         }
     }
 }
@@ -0,0 +1,229 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saves the frames in which a train was detected, off the capture and detection threads. Frames are copied into a
+ * fixed pool and encoded in memory by a small pool of threads, then a single writer thread saves them to the image
+ * output directory in batches. If encoding or the disk cannot keep up, new frames are dropped and counted rather than
+ * making the caller wait. Thread safe.
+ */
+public class SnapshotEncoder {
+    private static final Logger LOG = LogManager.getLogger(SnapshotEncoder.class);
+    private static final SnapshotEncoder snapshotEncoder = new SnapshotEncoder();
+    private static final EncodedSnapshot END_OF_SNAPSHOTS = new EncodedSnapshot(null, null);
+    // Log every drop until this many, then only every this many, so a slow disk does not also flood the log
+    private static final long DROP_LOG_INTERVAL = 100;
+    private static final AtomicInteger ENCODER_THREAD_COUNT = new AtomicInteger();
+
+    private final FramePool framePool;
+    private final ThreadPoolExecutor encoderPool;
+    private final BlockingQueue<EncodedSnapshot> encodedSnapshots;
+    private final ExecutorService writer;
+    private final MatOfInt encodeParams;
+    private final ThreadLocal<MatOfByte> encodeBuffers = ThreadLocal.withInitial(MatOfByte::new);
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final FrameMetrics metrics = new FrameMetrics();
+    private volatile boolean closed = false;
+
+    private SnapshotEncoder() {
+        // One frame in each encoder thread and each queue slot, so a free frame means the queue has room
+        framePool = new FramePool(Config.SNAPSHOT_ENCODER_THREADS + Config.SNAPSHOT_QUEUE_SIZE);
+        encoderPool = new ThreadPoolExecutor(Config.SNAPSHOT_ENCODER_THREADS, Config.SNAPSHOT_ENCODER_THREADS,
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Config.SNAPSHOT_QUEUE_SIZE), runnable -> {
+                    Thread thread = new Thread(runnable, "snapshot-encoder-" + ENCODER_THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        encodedSnapshots = new ArrayBlockingQueue<>(Config.SNAPSHOT_QUEUE_SIZE);
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.execute(this::writeSnapshots);
+
+        String extension = Config.IMAGE_EXTENSION.toLowerCase();
+        if (extension.equals("jpg") || extension.equals("jpeg")) {
+            encodeParams = new MatOfInt(Imgcodecs.CV_IMWRITE_JPEG_QUALITY, Config.IMAGE_JPEG_QUALITY);
+        } else {
+            encodeParams = new MatOfInt();
+        }
+        metrics.setDroppedFrameCounter(droppedCount::get);
+        metrics.register("SnapshotEncoder", "snapshots");
+    }
+
+    public static SnapshotEncoder getInstance() {
+        return snapshotEncoder;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * The time spent encoding and writing snapshots, and how many were written or dropped.
+     */
+    public FrameMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getQueueDepth() {
+        return encoderPool.getQueue().size() + encodedSnapshots.size();
+    }
+
+    /**
+     * Copy a frame and queue it to be saved as the given file name in the image output directory. Never blocks; the
+     * frame is dropped if the encoder is already full.
+     *
+     * @return false if the frame was dropped
+     */
+    public boolean submit(Mat frame, String fileName) {
+        PipelineFrame snapshot = closed ? null : framePool.tryAcquire();
+        if (snapshot == null) {
+            countDropped();
+            return false;
+        }
+        frame.copyTo(snapshot.getMat());
+        snapshot.setFileName(fileName);
+
+        try {
+            encoderPool.execute(() -> encode(snapshot));
+            return true;
+        } catch (RejectedExecutionException e) {
+            framePool.release(snapshot);
+            countDropped();
+            return false;
+        }
+    }
+
+    /**
+     * Save everything already queued, then stop the encoder and writer threads.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            encoderPool.shutdown();
+            if (encoderPool.awaitTermination(5, TimeUnit.SECONDS)) {
+                framePool.releaseAll();
+            } else {
+                LOG.warn("Snapshot encoding did not finish in time");
+                encoderPool.shutdownNow();
+            }
+            encodedSnapshots.put(END_OF_SNAPSHOTS);
+            writer.shutdown();
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                LOG.warn("Snapshot writing did not finish in time");
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        encodeParams.release();
+        metrics.unregister();
+        LOG.info("Snapshots written: " + writtenCount.get() + ", dropped: " + droppedCount.get());
+    }
+
+    private void encode(PipelineFrame snapshot) {
+        try {
+            MatOfByte encodeBuffer = encodeBuffers.get();
+            long startNanos = System.nanoTime();
+            if (!Imgcodecs.imencode("." + Config.IMAGE_EXTENSION, snapshot.getMat(), encodeBuffer, encodeParams)) {
+                LOG.warn("Unable to encode snapshot " + snapshot.getFileName());
+                return;
+            }
+            metrics.record(FrameMetrics.Stage.ENCODE, System.nanoTime() - startNanos);
+            // Waits for the writer if the disk is behind, which fills the encoder queue and so drops new frames
+            encodedSnapshots.put(new EncodedSnapshot(snapshot.getFileName(), encodeBuffer.toArray()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            framePool.release(snapshot);
+        }
+    }
+
+    private void writeSnapshots() {
+        Path directory = Paths.get(Config.IMAGE_OUTPUT_DIRECTORY);
+        List<EncodedSnapshot> batch = new ArrayList<>(Config.SNAPSHOT_BATCH_SIZE);
+        boolean ended = false;
+        while (!ended) {
+            try {
+                batch.add(encodedSnapshots.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            encodedSnapshots.drainTo(batch, Config.SNAPSHOT_BATCH_SIZE - 1);
+
+            // The directory only needs to be checked once for the whole batch
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                LOG.warn("Unable to create image output directory: " + e);
+            }
+            for (EncodedSnapshot snapshot : batch) {
+                if (snapshot == END_OF_SNAPSHOTS) {
+                    ended = true;
+                    continue;
+                }
+                long startNanos = System.nanoTime();
+                try (FileOutputStream out = new FileOutputStream(directory.resolve(snapshot.fileName).toFile())) {
+                    out.write(snapshot.bytes);
+                    writtenCount.incrementAndGet();
+                    metrics.frameProcessed();
+                } catch (IOException e) {
+                    LOG.warn("Unable to write snapshot " + snapshot.fileName + ": " + e);
+                }
+                metrics.record(FrameMetrics.Stage.WRITE, System.nanoTime() - startNanos);
+            }
+            batch.clear();
+        }
+    }
+
+    private void countDropped() {
+        long dropped = droppedCount.incrementAndGet();
+        if (dropped < DROP_LOG_INTERVAL || dropped % DROP_LOG_INTERVAL == 0) {
+            LOG.warn("Snapshot encoder is behind, " + dropped + " snapshots dropped");
+        }
+    }
+
+    private static class EncodedSnapshot {
+        private final String fileName;
+        private final byte[] bytes;
+
+        private EncodedSnapshot(String fileName, byte[] bytes) {
+            this.fileName = fileName;
+            this.bytes = bytes;
+        }
+    }
+}
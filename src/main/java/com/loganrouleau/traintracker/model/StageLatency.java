@@ -0,0 +1,40 @@
+package com.loganrouleau.traintracker.model;
+
+/**
+ * A snapshot of one stage's {@link LatencyHistogram}, in microseconds, as published over JMX.
+ */
+public class StageLatency {
+    private final long count;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p99Micros;
+    private final double maxMicros;
+
+    StageLatency(LatencyHistogram histogram) {
+        count = histogram.getCount();
+        meanMicros = histogram.getMeanNanos() / 1000;
+        p50Micros = histogram.getPercentileNanos(0.5) / 1000.0;
+        p99Micros = histogram.getPercentileNanos(0.99) / 1000.0;
+        maxMicros = histogram.getMaxNanos() / 1000.0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public double getP50Micros() {
+        return p50Micros;
+    }
+
+    public double getP99Micros() {
+        return p99Micros;
+    }
+
+    public double getMaxMicros() {
+        return maxMicros;
+    }
+}
@@ -0,0 +1,114 @@
+package com.loganrouleau.traintracker.model;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records per-frame detection metrics as fixed width binary records in a memory-mapped ring file, for tuning after a
+ * run. Recording a frame is a handful of absolute puts into the mapped buffer, with no formatting or allocation. Once
+ * the ring is full the oldest records are overwritten. Not thread safe, each detector records to its own file from its
+ * detection thread. See {@link com.loganrouleau.traintracker.TelemetryExporter} for converting records to csv.
+ * <p>
+ * The file starts with a {@value #HEADER_BYTES} byte header of magic, version, record size, capacity and the next
+ * sequence number to be written, followed by the records. All values are little endian.
+ */
+public class TelemetryRecorder {
+    private static final Logger LOG = LogManager.getLogger(TelemetryRecorder.class);
+
+    public static final int MAGIC = 0x54524B54;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 64;
+    public static final int RECORD_BYTES = 64;
+
+    public static final int HEADER_MAGIC_OFFSET = 0;
+    public static final int HEADER_VERSION_OFFSET = 4;
+    public static final int HEADER_RECORD_BYTES_OFFSET = 8;
+    public static final int HEADER_CAPACITY_OFFSET = 16;
+    public static final int HEADER_NEXT_SEQUENCE_OFFSET = 24;
+
+    public static final int SEQUENCE_OFFSET = 0;
+    public static final int TIMESTAMP_NANOS_OFFSET = 8;
+    public static final int M00_OFFSET = 16;
+    public static final int CENTROID_X_OFFSET = 24;
+    public static final int CENTROID_Y_OFFSET = 32;
+    public static final int STATE_OFFSET = 40;
+    public static final int DIFF_NANOS_OFFSET = 44;
+    public static final int MOMENTS_NANOS_OFFSET = 48;
+    public static final int STATE_UPDATE_NANOS_OFFSET = 52;
+    public static final int DETECT_NANOS_OFFSET = 56;
+
+    public static final int STATE_TRAIN_DETECTED = 1;
+    public static final int STATE_TRACKING_CENTROIDS = 1 << 1;
+    public static final int STATE_CALIBRATING = 1 << 2;
+    // The detected frame count is stored in the second byte of the state
+    public static final int STATE_DETECTED_FRAMES_SHIFT = 8;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long capacity;
+
+    /**
+     * Map a ring file with room for the given number of records, creating or resizing it as needed. Recording resumes
+     * after the last record of an existing file with the same capacity.
+     */
+    public TelemetryRecorder(Path path, long capacity) throws IOException {
+        this.capacity = capacity;
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + capacity * RECORD_BYTES);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt(HEADER_MAGIC_OFFSET) != MAGIC || buffer.getInt(HEADER_VERSION_OFFSET) != VERSION
+                || buffer.getLong(HEADER_CAPACITY_OFFSET) != capacity) {
+            buffer.putInt(HEADER_MAGIC_OFFSET, MAGIC);
+            buffer.putInt(HEADER_VERSION_OFFSET, VERSION);
+            buffer.putInt(HEADER_RECORD_BYTES_OFFSET, RECORD_BYTES);
+            buffer.putLong(HEADER_CAPACITY_OFFSET, capacity);
+            buffer.putLong(HEADER_NEXT_SEQUENCE_OFFSET, 0);
+        }
+    }
+
+    /**
+     * Append one frame's record, overwriting the oldest record once the ring is full. Timings are in nanoseconds.
+     */
+    public void record(long sequence, long timestampNanos, double m00, double centroidX, double centroidY, int state,
+                       int diffNanos, int momentsNanos, int stateUpdateNanos, int detectNanos) {
+        int offset = (int) (HEADER_BYTES + Math.floorMod(sequence, capacity) * RECORD_BYTES);
+        buffer.putLong(offset + SEQUENCE_OFFSET, sequence);
+        buffer.putLong(offset + TIMESTAMP_NANOS_OFFSET, timestampNanos);
+        buffer.putDouble(offset + M00_OFFSET, m00);
+        buffer.putDouble(offset + CENTROID_X_OFFSET, centroidX);
+        buffer.putDouble(offset + CENTROID_Y_OFFSET, centroidY);
+        buffer.putInt(offset + STATE_OFFSET, state);
+        buffer.putInt(offset + DIFF_NANOS_OFFSET, diffNanos);
+        buffer.putInt(offset + MOMENTS_NANOS_OFFSET, momentsNanos);
+        buffer.putInt(offset + STATE_UPDATE_NANOS_OFFSET, stateUpdateNanos);
+        buffer.putInt(offset + DETECT_NANOS_OFFSET, detectNanos);
+        // Written last, so a reader never treats a partially written record as complete
+        buffer.putLong(HEADER_NEXT_SEQUENCE_OFFSET, sequence + 1);
+    }
+
+    /**
+     * The sequence number following the last record written, which is where a new recording should continue from.
+     */
+    public long getNextSequence() {
+        return buffer.getLong(HEADER_NEXT_SEQUENCE_OFFSET);
+    }
+
+    public void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to close telemetry file: " + e);
+        }
+    }
+}
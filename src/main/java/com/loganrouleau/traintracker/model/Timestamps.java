@@ -0,0 +1,39 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formats frame times in the configured timestamp format, for results, logs and file names. Only frames which are
+ * saved or reported need a readable timestamp, so frames are formatted on demand rather than as they are read, with a
+ * formatter that is built once and shared. Thread safe.
+ */
+final class Timestamps {
+    private static volatile CachedFormatter cached;
+
+    private Timestamps() {
+    }
+
+    static String format(long epochMillis) {
+        CachedFormatter formatter = cached;
+        String pattern = Config.TIMESTAMP_FORMAT;
+        if (formatter == null || !formatter.pattern.equals(pattern)) {
+            formatter = new CachedFormatter(pattern);
+            cached = formatter;
+        }
+        return formatter.formatter.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    private static final class CachedFormatter {
+        private final String pattern;
+        private final DateTimeFormatter formatter;
+
+        private CachedFormatter(String pattern) {
+            this.pattern = pattern;
+            formatter = DateTimeFormatter.ofPattern(pattern).withZone(ZoneId.systemDefault());
+        }
+    }
+}
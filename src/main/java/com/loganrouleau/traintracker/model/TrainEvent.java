@@ -0,0 +1,45 @@
+package com.loganrouleau.traintracker.model;
+
+/**
+ * The estimates for a train which has passed through a region.
+ */
+class TrainEvent {
+    private final String direction;
+    private final double speedPixelsPerSecond;
+    private final long dwellMillis;
+
+    TrainEvent(String direction, double speedPixelsPerSecond, long dwellMillis) {
+        this.direction = direction;
+        this.speedPixelsPerSecond = speedPixelsPerSecond;
+        this.dwellMillis = dwellMillis;
+    }
+
+    /**
+     * "East" or "West".
+     */
+    String getDirection() {
+        return direction;
+    }
+
+    /**
+     * The mean speed of the centroid across the region, or NaN if it could not be measured.
+     */
+    double getSpeedPixelsPerSecond() {
+        return speedPixelsPerSecond;
+    }
+
+    /**
+     * How long the train was tracked in the region.
+     */
+    long getDwellMillis() {
+        return dwellMillis;
+    }
+
+    /**
+     * Estimate the length of the train. It is tracked from when its front enters the region until its back leaves, so
+     * in that time it travels its own length plus the width of the region.
+     */
+    double getLengthPixels(double regionWidthPixels) {
+        return Math.max(0, speedPixelsPerSecond * dwellMillis / 1000 - regionWidthPixels);
+    }
+}
@@ -0,0 +1,99 @@
+package com.loganrouleau.traintracker.model;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+
+import java.nio.file.Path;
+
+import static org.opencv.videoio.Videoio.CV_CAP_PROP_FPS;
+import static org.opencv.videoio.Videoio.CV_CAP_PROP_FRAME_COUNT;
+import static org.opencv.videoio.Videoio.CV_CAP_PROP_POS_MSEC;
+
+/**
+ * Recorded frames from a video file. Frame times are the given recording start time plus each frame's position in the
+ * video.
+ */
+public class VideoFileFrameSource implements FrameSource {
+    private static final Logger LOG = LogManager.getLogger(VideoFileFrameSource.class);
+
+    private final Path videoFile;
+    private final long startTimeMillis;
+    private final VideoCapture capture = new VideoCapture();
+    private long frameTimeMillis;
+    private long frameTimeNanos;
+
+    public VideoFileFrameSource(Path videoFile, long startTimeMillis) {
+        this.videoFile = videoFile;
+        this.startTimeMillis = startTimeMillis;
+    }
+
+    /**
+     * A video which finished recording at the given time, such as its last modified time. It started recording its
+     * duration earlier, from its frame count and frame rate.
+     */
+    public static VideoFileFrameSource endingAt(Path videoFile, long endTimeMillis) {
+        VideoCapture probe = new VideoCapture(videoFile.toString());
+        double frameCount = probe.get(CV_CAP_PROP_FRAME_COUNT);
+        double framesPerSecond = probe.get(CV_CAP_PROP_FPS);
+        probe.release();
+        if (frameCount <= 0 || framesPerSecond <= 0) {
+            LOG.warn("Unable to read the duration of " + videoFile + ", timestamps will start at its end time");
+            return new VideoFileFrameSource(videoFile, endTimeMillis);
+        }
+        return new VideoFileFrameSource(videoFile, endTimeMillis - Math.round(1000 * frameCount / framesPerSecond));
+    }
+
+    @Override
+    public boolean open() {
+        if (!capture.isOpened()) {
+            capture.open(videoFile.toString());
+        }
+        return capture.isOpened();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return capture.isOpened();
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        if (!capture.read(frame) || frame.empty()) {
+            return false;
+        }
+        double positionMillis = capture.get(CV_CAP_PROP_POS_MSEC);
+        frameTimeMillis = startTimeMillis + (long) positionMillis;
+        frameTimeNanos = (long) (positionMillis * 1_000_000);
+        return true;
+    }
+
+    @Override
+    public long getFrameTimeMillis() {
+        return frameTimeMillis;
+    }
+
+    /**
+     * The frame's position in the video.
+     */
+    @Override
+    public long getFrameTimeNanos() {
+        return frameTimeNanos;
+    }
+
+    @Override
+    public boolean isLive() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        capture.release();
+    }
+
+    @Override
+    public String toString() {
+        return videoFile.toString();
+    }
+}
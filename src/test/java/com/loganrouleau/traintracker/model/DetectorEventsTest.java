@@ -0,0 +1,154 @@
+package com.loganrouleau.traintracker.model;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DetectorEventsTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final DetectorEvents events = new DetectorEvents();
+
+    @Test
+    public void deliversOnlyToSubscribersOfTheEventType() throws InterruptedException {
+        assertFalse(events.hasSubscribers(Integer.class));
+        List<Object> numbers = new CopyOnWriteArrayList<>();
+        DetectorEvents.Subscription subscription = events.subscribe(Number.class, DeliveryPolicy.LOSSLESS, 10, 0,
+                numbers::add);
+        assertTrue(events.hasSubscribers(Integer.class));
+        assertFalse(events.hasSubscribers(String.class));
+
+        events.publish("not a number");
+        events.publish(1);
+        events.publish(2.5);
+        awaitSize(numbers, 2);
+        assertEquals(1, numbers.get(0));
+        assertEquals(2.5, numbers.get(1));
+
+        subscription.cancel();
+        assertFalse(events.hasSubscribers(Integer.class));
+    }
+
+    @Test
+    public void deliversLosslessEventsInOrder() throws InterruptedException {
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        DetectorEvents.Subscription subscription = events.subscribe(Integer.class, DeliveryPolicy.LOSSLESS, 1000, 0,
+                received::add);
+        for (int i = 0; i < 500; i++) {
+            events.publish(i);
+        }
+        awaitSize(received, 500);
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, (int) received.get(i));
+        }
+        assertEquals(0, subscription.getDroppedEvents());
+    }
+
+    @Test
+    public void dropsLosslessEventsBeyondCapacity() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        DetectorEvents.Subscription subscription = events.subscribe(Integer.class, DeliveryPolicy.LOSSLESS, 3, 0,
+                event -> {
+                    blocked.countDown();
+                    await(release);
+                    received.add(event);
+                });
+        events.publish(0);
+        assertTrue(blocked.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        // The handler holds event 0, so the mailbox fills with 1 to 3
+        for (int i = 1; i <= 5; i++) {
+            events.publish(i);
+        }
+        assertEquals(2, subscription.getDroppedEvents());
+        release.countDown();
+        awaitSize(received, 4);
+        Thread.sleep(50);
+        assertEquals("[0, 1, 2, 3]", received.toString());
+    }
+
+    @Test
+    public void deliversOnlyTheLatestEventToASlowSubscriber() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        DetectorEvents.Subscription subscription = events.subscribe(Integer.class, DeliveryPolicy.LATEST_ONLY, 1, 0,
+                event -> {
+                    blocked.countDown();
+                    await(release);
+                    received.add(event);
+                });
+        events.publish(0);
+        assertTrue(blocked.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        for (int i = 1; i <= 5; i++) {
+            events.publish(i);
+        }
+        assertEquals(4, subscription.getDroppedEvents());
+        release.countDown();
+        awaitSize(received, 2);
+        Thread.sleep(50);
+        assertEquals("[0, 5]", received.toString());
+    }
+
+    @Test
+    public void holdsTheLatestSampleUntilTheIntervalEnds() throws InterruptedException {
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        long intervalMillis = 300;
+        DetectorEvents.Subscription subscription = events.subscribe(Integer.class, DeliveryPolicy.SAMPLED, 1,
+                intervalMillis, received::add);
+        long start = System.nanoTime();
+        events.publish(0);
+        awaitSize(received, 1);
+        events.publish(1);
+        events.publish(2);
+        events.publish(3);
+        long published = System.nanoTime();
+        awaitSize(received, 2);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("[0, 3]", received.toString());
+        assertEquals(2, subscription.getDroppedEvents());
+        // Skip the timing check if publishing itself was delayed past the interval
+        if (TimeUnit.NANOSECONDS.toMillis(published - start) < intervalMillis) {
+            assertTrue("Held sample delivered after " + elapsedMillis + "ms", elapsedMillis >= intervalMillis - 20);
+        }
+    }
+
+    @Test
+    public void stopsDeliveringWhenCancelled() throws InterruptedException {
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        DetectorEvents.Subscription subscription = events.subscribe(Integer.class, DeliveryPolicy.SAMPLED, 1, 200,
+                received::add);
+        events.publish(0);
+        awaitSize(received, 1);
+        events.publish(1);
+        subscription.cancel();
+        events.publish(2);
+        Thread.sleep(400);
+        assertEquals("[0]", received.toString());
+    }
+
+    private static void awaitSize(List<?> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (list.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(size, list.size());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
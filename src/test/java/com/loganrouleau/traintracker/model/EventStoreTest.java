@@ -0,0 +1,164 @@
+package com.loganrouleau.traintracker.model;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventStoreTest {
+    private static final long HOUR_MILLIS = 3_600_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasAppended() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("events").resolve("events.dat");
+        EventStore store = EventStore.open(path);
+        store.append(1000, "Bridge", 25, 4, "East", 123.4, 567.8, 9500);
+        store.append(2000, "Crossing", 30.5, 2, "West", Double.NaN, Double.NaN, 0);
+        store.append(3000, "Bridge", 25, 4, "", 10, 20, 30);
+        store.close();
+
+        EventStore reopened = EventStore.openReadOnly(path);
+        assertEquals(3, reopened.getCount());
+        List<String> records = new ArrayList<>();
+        reopened.scan(Long.MIN_VALUE, Long.MAX_VALUE, record -> records.add(record.getTimestampMillis() + " "
+                + record.getLocation() + " " + record.getThreshold() + " " + record.getTolerance() + " "
+                + record.getDirection() + " " + record.getDirectionName() + " " + record.getSpeedPixelsPerSecond()
+                + " " + record.getLengthPixels() + " " + record.getDwellMillis()));
+        reopened.close();
+
+        assertEquals(3, records.size());
+        assertEquals("1000 Bridge 25.0 4.0 1 East " + (double) 123.4f + " " + (double) 567.8f + " 9500",
+                records.get(0));
+        assertEquals("2000 Crossing 30.5 2.0 2 West NaN NaN 0", records.get(1));
+        assertEquals("3000 Bridge 25.0 4.0 0  10.0 20.0 30", records.get(2));
+    }
+
+    @Test
+    public void continuesAfterReopening() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("events.dat");
+        EventStore store = EventStore.open(path);
+        store.append(1000, "Bridge", 0, 0, "East", 0, 0, 0);
+        store.close();
+        store = EventStore.open(path);
+        store.append(2000, "Bridge", 0, 0, "West", 0, 0, 0);
+        assertEquals(2, store.getCount());
+        assertEquals(1, store.scan(1500, 2500, record -> assertEquals(2000, record.getTimestampMillis())));
+        store.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesToAppendWhenReadOnly() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("events.dat");
+        EventStore.open(path).close();
+        EventStore.openReadOnly(path).append(1000, "Bridge", 0, 0, "East", 0, 0, 0);
+    }
+
+    @Test
+    public void truncatesLongLocations() throws IOException {
+        EventStore store = EventStore.open(folder.getRoot().toPath().resolve("events.dat"));
+        String location = "The very long name of a level crossing";
+        store.append(1000, location, 0, 0, "East", 0, 0, 0);
+        store.scan(0, 2000, record -> {
+            assertEquals(location.substring(0, EventStore.LOCATION_BYTES), record.getLocation());
+            assertTrue(record.isAt(location));
+            assertTrue(record.isAt(location.substring(0, EventStore.LOCATION_BYTES)));
+        });
+        store.close();
+    }
+
+    @Test
+    public void matchesWholeLocationNames() throws IOException {
+        EventStore store = EventStore.open(folder.getRoot().toPath().resolve("events.dat"));
+        store.append(1000, "Bridge", 0, 0, "East", 0, 0, 0);
+        store.append(2000, "Bridge Street", 0, 0, "East", 0, 0, 0);
+        long[] bridge = new long[1];
+        store.scan(0, 3000, record -> {
+            if (record.isAt("Bridge")) {
+                bridge[0]++;
+            }
+        });
+        assertEquals(1, bridge[0]);
+        store.close();
+    }
+
+    @Test
+    public void scansRangesAcrossChunks() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("events.dat");
+        EventStore store = EventStore.open(path);
+        int records = EventStore.CHUNK_RECORDS + 3 * EventStore.INDEX_INTERVAL + 7;
+        for (int i = 0; i < records; i++) {
+            store.append(i * 10L, "Bridge", 0, 0, i % 2 == 0 ? "East" : "West", i, 0, 0);
+        }
+        store.close();
+
+        EventStore reopened = EventStore.openReadOnly(path);
+        assertEquals(records, reopened.getCount());
+        long from = (EventStore.CHUNK_RECORDS - 5) * 10L;
+        long to = (EventStore.CHUNK_RECORDS + 5) * 10L;
+        long[] expected = {EventStore.CHUNK_RECORDS - 5};
+        assertEquals(11, reopened.scan(from, to, record -> {
+            assertEquals(expected[0] * 10, record.getTimestampMillis());
+            assertEquals(expected[0], record.getSpeedPixelsPerSecond(), 0);
+            expected[0]++;
+        }));
+        assertEquals(records, reopened.scan(Long.MIN_VALUE, Long.MAX_VALUE, record -> {
+        }));
+        assertEquals(0, reopened.scan(records * 10L, Long.MAX_VALUE, record -> {
+        }));
+        reopened.close();
+    }
+
+    @Test
+    public void countsByHourAndDirection() throws IOException {
+        EventStore store = EventStore.open(folder.getRoot().toPath().resolve("events.dat"));
+        store.append(HOUR_MILLIS / 2, "Bridge", 0, 0, "East", 0, 0, 0);
+        store.append(HOUR_MILLIS + 1, "Bridge", 0, 0, "West", 0, 0, 0);
+        store.append(HOUR_MILLIS + 2, "Bridge", 0, 0, "West", 0, 0, 0);
+        store.append(HOUR_MILLIS + 3, "Crossing", 0, 0, "West", 0, 0, 0);
+        store.append(25 * HOUR_MILLIS, "Bridge", 0, 0, "", 0, 0, 0);
+
+        long[][] counts = store.countByHourAndDirection(0, 26 * HOUR_MILLIS, "Bridge", ZoneOffset.UTC);
+        assertArrayEquals(new long[]{0, 1, 0}, counts[0]);
+        assertArrayEquals(new long[]{1, 0, 2}, counts[1]);
+        assertArrayEquals(new long[]{0, 0, 0}, counts[2]);
+
+        long[][] all = store.countByHourAndDirection(0, 2 * HOUR_MILLIS, null, ZoneOffset.ofHours(2));
+        assertArrayEquals(new long[]{0, 1, 0}, all[2]);
+        assertArrayEquals(new long[]{0, 0, 3}, all[3]);
+        store.close();
+    }
+
+    @Test
+    public void exportsInTheResultFileFormat() throws IOException {
+        EventStore store = EventStore.open(folder.getRoot().toPath().resolve("events.dat"));
+        store.append(0, "Bridge", 24.6, 3.2, "East", 12.34, 250, 1500);
+        store.append(1000, "Crossing", 10, 1, "West", 1, 1, 0);
+        store.append(2000, "Bridge", 25, 3, "", Double.NaN, Double.NaN, 0);
+
+        StringWriter out = new StringWriter();
+        long written = store.exportCsv(0, 2000, "Bridge", DateTimeFormatter.ISO_LOCAL_DATE_TIME, ZoneOffset.UTC, out);
+        store.close();
+
+        assertEquals(2, written);
+        String[] lines = out.toString().split("\\R");
+        assertEquals(3, lines.length);
+        assertEquals("Timestamp,Location,Threshold Slider Value,Detection Tolerance Slider Value,Direction,Speed,"
+                + "Length,Dwell Seconds", lines[0]);
+        assertEquals("1970-01-01T00:00:00,Bridge,25,3,East,12.3,250.0,1.5", lines[1]);
+        assertEquals("1970-01-01T00:00:02,Bridge,25,3,,,,0.0", lines[2]);
+    }
+}
@@ -0,0 +1,101 @@
+package com.loganrouleau.traintracker.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FrameBuffersTest {
+    private static final int FRAMES = 1000;
+
+    private FrameBuffers buffers;
+
+    @Before
+    public void setUp() {
+        OpenCvAssumptions.assumeMats();
+        buffers = new FrameBuffers();
+    }
+
+    @After
+    public void tearDown() {
+        if (buffers != null) {
+            buffers.release();
+        }
+    }
+
+    @Test
+    public void swapsTheSameTwoBuffersEveryFrame() {
+        Mat first = buffers.getCurrFrame();
+        Mat second = buffers.getPrevFrame();
+        assertNotSame(first, second);
+        assertFalse(buffers.isPrevFrameValid(first));
+        for (int i = 0; i < FRAMES; i++) {
+            Mat curr = buffers.getCurrFrame();
+            buffers.advance();
+            assertSame(curr, buffers.getPrevFrame());
+            assertSame(i % 2 == 0 ? second : first, buffers.getCurrFrame());
+        }
+        assertTrue(buffers.isPrevFrameValid(buffers.getCurrFrame()));
+        buffers.reset();
+        assertFalse(buffers.isPrevFrameValid(buffers.getCurrFrame()));
+    }
+
+    @Test
+    public void mapsDetectionCoordinatesToFullResolution() {
+        buffers.setDecimation(0, 1);
+        assertEquals(1, buffers.getDetectionScale(), 0);
+        assertEquals(10, buffers.toFullResolution(10), 1e-9);
+
+        buffers.setDecimation(2, 0.5);
+        assertEquals(0.25, buffers.getDetectionScale(), 0);
+        assertEquals(40, buffers.toFullResolution(10), 1e-9);
+
+        buffers.setDecimation(0, 0.5);
+        assertEquals(0.5, buffers.getDetectionScale(), 0);
+        // The center of the second 2x2 block
+        assertEquals(2.5, buffers.toFullResolution(1), 1e-9);
+    }
+
+    @Test
+    public void copiesEachRegionIntoTheSameNativeMemory() {
+        OpenCvAssumptions.assumeNativeLibrary();
+        Rect captureBox = new Rect(40, 30, 160, 90);
+        Mat[] frames = {new Mat(240, 320, CvType.CV_8UC3), new Mat(240, 320, CvType.CV_8UC3)};
+        try {
+            for (Mat frame : frames) {
+                Core.randn(frame, 64, 8);
+            }
+            for (int pyramidLevels = 0; pyramidLevels <= 1; pyramidLevels++) {
+                buffers.setDecimation(pyramidLevels, 1);
+                buffers.reset();
+                long[] dataAddrs = new long[2];
+                for (int i = 0; i < FRAMES; i++) {
+                    Mat curr = buffers.getCurrFrame();
+                    buffers.copyRoi(frames[i % 2], captureBox, curr);
+                    if (i < 2) {
+                        dataAddrs[i] = curr.dataAddr();
+                    } else {
+                        assertEquals("Frame " + i + " reallocated", dataAddrs[i % 2], curr.dataAddr());
+                    }
+                    assertEquals(captureBox.height >> pyramidLevels, curr.rows());
+                    assertEquals(captureBox.width >> pyramidLevels, curr.cols());
+                    assertEquals(CvType.CV_8UC1, curr.type());
+                    buffers.advance();
+                }
+            }
+        } finally {
+            for (Mat frame : frames) {
+                frame.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.loganrouleau.traintracker.model;
+
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNoException;
+
+public class FusedMotionKernelTest {
+    private static final int ROWS = 37;
+    private static final int COLS = 53;
+    private static final int FRAMES = 6;
+
+    @Test
+    public void skipsTheFirstFrameAndSizeChanges() {
+        FusedMotionKernel kernel = new FusedMotionKernel();
+        byte[][] frames = frames(ROWS, COLS, 2);
+        assertFalse(kernel.update(frames[0], ROWS, COLS, 20, false));
+        assertTrue(kernel.update(frames[1], ROWS, COLS, 20, false));
+        assertFalse(kernel.update(frames[0], COLS, ROWS, 20, false));
+        assertTrue(kernel.update(frames[1], COLS, ROWS, 20, false));
+        kernel.reset();
+        assertFalse(kernel.update(frames[0], COLS, ROWS, 20, false));
+    }
+
+    @Test
+    public void matchesTheReference() {
+        checkAgainstReference(new FusedMotionKernel(), 20);
+    }
+
+    @Test
+    public void stripedKernelMatchesTheReference() {
+        // Force stripes whatever the number of cores
+        assertEquals(4, FusedMotionKernel.chooseStripeCount(ROWS, COLS, 4, 1));
+        checkAgainstReference(new FusedMotionKernel(1, 4), 20);
+        checkAgainstReference(new FusedMotionKernel(1, 3), 0.5);
+    }
+
+    @Test
+    public void usesTheIntegerPartOfAFractionalThreshold() {
+        checkAgainstReference(new FusedMotionKernel(), 20.7);
+        checkAgainstReference(new FusedMotionKernel(), 0.5);
+    }
+
+    @Test
+    public void findsNothingInIdenticalFrames() {
+        FusedMotionKernel kernel = new FusedMotionKernel(1, 4);
+        byte[] frame = frames(ROWS, COLS, 1)[0];
+        kernel.update(frame, ROWS, COLS, 0, true);
+        assertTrue(kernel.update(frame, ROWS, COLS, 0, true));
+        assertEquals(0, kernel.getM00(), 0);
+        assertEquals(0, kernel.getM10(), 0);
+        assertEquals(0, kernel.getM01(), 0);
+        assertArrayEquals(new byte[ROWS * COLS], kernel.getMask());
+    }
+
+    @Test
+    public void choosesStripesFromThePoolAndFrameSize() {
+        assertEquals(4, FusedMotionKernel.chooseStripeCount(100, 100, 4, 1000));
+        assertEquals(2, FusedMotionKernel.chooseStripeCount(100, 25, 4, 1000));
+        assertEquals(1, FusedMotionKernel.chooseStripeCount(10, 10, 4, 1000));
+        assertEquals(1, FusedMotionKernel.chooseStripeCount(100, 100, 1, 1000));
+        // Never more stripes than rows
+        assertEquals(3, FusedMotionKernel.chooseStripeCount(3, 1000, 8, 1));
+    }
+
+    @Test
+    public void matchesOpenCv() {
+        try {
+            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        } catch (UnsatisfiedLinkError e) {
+            assumeNoException("OpenCV native library not available", e);
+        }
+        checkAgainstOpenCv(new FusedMotionKernel(), 20);
+        checkAgainstOpenCv(new FusedMotionKernel(), 20.7);
+        checkAgainstOpenCv(new FusedMotionKernel(1, 4), 20);
+        checkAgainstOpenCv(new FusedMotionKernel(1, 4), 20.7);
+    }
+
+    private static void checkAgainstReference(FusedMotionKernel kernel, double threshold) {
+        byte[][] frames = frames(ROWS, COLS, FRAMES);
+        kernel.update(frames[0], ROWS, COLS, threshold, true);
+        for (int i = 1; i < frames.length; i++) {
+            assertTrue(kernel.update(frames[i], ROWS, COLS, threshold, true));
+            byte[] mask = new byte[ROWS * COLS];
+            long count = 0;
+            long sumX = 0;
+            long sumY = 0;
+            for (int y = 0; y < ROWS; y++) {
+                for (int x = 0; x < COLS; x++) {
+                    int p = y * COLS + x;
+                    if (Math.abs((frames[i][p] & 0xff) - (frames[i - 1][p] & 0xff)) > threshold) {
+                        mask[p] = (byte) 255;
+                        count++;
+                        sumX += x;
+                        sumY += y;
+                    }
+                }
+            }
+            assertTrue(count > 0);
+            assertEquals(255.0 * count, kernel.getM00(), 0);
+            assertEquals(255.0 * sumX, kernel.getM10(), 0);
+            assertEquals(255.0 * sumY, kernel.getM01(), 0);
+            assertArrayEquals("Mask of frame " + i, mask, kernel.getMask());
+        }
+    }
+
+    private static void checkAgainstOpenCv(FusedMotionKernel kernel, double threshold) {
+        byte[][] frames = frames(ROWS, COLS, FRAMES);
+        Mat[] mats = new Mat[frames.length];
+        Mat diffFrame = new Mat();
+        Mat fusedDiffFrame = new Mat();
+        Mat mismatch = new Mat();
+        try {
+            for (int i = 0; i < frames.length; i++) {
+                mats[i] = new Mat(ROWS, COLS, CvType.CV_8UC1);
+                mats[i].put(0, 0, frames[i]);
+            }
+            kernel.update(mats[0], threshold, true);
+            for (int i = 1; i < mats.length; i++) {
+                Core.absdiff(mats[i], mats[i - 1], diffFrame);
+                Imgproc.threshold(diffFrame, diffFrame, threshold, 255, Imgproc.THRESH_BINARY);
+                Moments moments = Imgproc.moments(diffFrame);
+                assertTrue(kernel.update(mats[i], threshold, true));
+                kernel.writeMask(fusedDiffFrame);
+                Core.compare(diffFrame, fusedDiffFrame, mismatch, Core.CMP_NE);
+                assertEquals(0, Core.countNonZero(mismatch));
+                assertEquals(moments.m00, kernel.getM00(), 1e-9 * Math.max(1, moments.m00));
+                assertEquals(moments.m10, kernel.getM10(), 1e-9 * Math.max(1, moments.m10));
+                assertEquals(moments.m01, kernel.getM01(), 1e-9 * Math.max(1, moments.m01));
+            }
+        } finally {
+            for (Mat mat : mats) {
+                if (mat != null) {
+                    mat.release();
+                }
+            }
+            diffFrame.release();
+            fusedDiffFrame.release();
+            mismatch.release();
+        }
+    }
+
+    /**
+     * Noise frames with a bright block moving across them, covering every difference from 0 to 255.
+     */
+    private static byte[][] frames(int rows, int cols, int count) {
+        Random random = new Random(42);
+        byte[][] frames = new byte[count][rows * cols];
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(frames[i]);
+            for (int y = rows / 4; y < rows / 2; y++) {
+                for (int x = i * 5; x < Math.min(cols, i * 5 + 10); x++) {
+                    frames[i][y * cols + x] = (byte) 255;
+                }
+            }
+        }
+        return frames;
+    }
+}
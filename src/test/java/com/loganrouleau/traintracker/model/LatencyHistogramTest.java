@@ -0,0 +1,85 @@
+package com.loganrouleau.traintracker.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    @Test
+    public void isEmptyUntilRecorded() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(0.5));
+        assertEquals(0, histogram.getMeanNanos(), 0);
+    }
+
+    @Test
+    public void keepsSmallValuesExact() {
+        for (long nanos = 0; nanos < 8; nanos++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(nanos);
+            histogram.record(1_000_000);
+            assertEquals(nanos, histogram.getPercentileNanos(0.5));
+        }
+    }
+
+    @Test
+    public void roundsUpToTheTopOfTheBucketWithinAQuarter() {
+        for (long nanos = 4; nanos < (1L << 36); nanos = nanos * 5 / 4 + 1) {
+            for (long value : new long[]{nanos, Long.highestOneBit(nanos), Long.highestOneBit(nanos) * 2 - 1}) {
+                LatencyHistogram histogram = new LatencyHistogram();
+                histogram.record(value);
+                // A larger value, so the percentile is not capped at the maximum
+                histogram.record(1L << 38);
+                long bound = histogram.getPercentileNanos(0.5);
+                assertTrue(value + " rounded down to " + bound, bound >= value);
+                assertTrue(value + " rounded up to " + bound, bound < value * 1.25 + 1);
+            }
+        }
+    }
+
+    @Test
+    public void capsPercentilesAtTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.getPercentileNanos(0.99));
+        assertEquals(1000, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void ranksPercentilesAcrossBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(1_000_000);
+        // 100 is in the bucket 96 to 111
+        assertEquals(111, histogram.getPercentileNanos(0.5));
+        assertEquals(111, histogram.getPercentileNanos(0.99));
+        assertEquals(1_000_000, histogram.getPercentileNanos(1));
+        assertEquals(100, histogram.getCount());
+        assertEquals((99 * 100 + 1_000_000) / 100.0, histogram.getMeanNanos(), 1e-9);
+    }
+
+    @Test
+    public void putsValuesBeyondTheRangeInTheLastBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1L << 50);
+        assertEquals(1, histogram.getCount());
+        assertEquals(1L << 50, histogram.getMaxNanos());
+        assertTrue(histogram.getPercentileNanos(1) >= 1L << 40);
+    }
+
+    @Test
+    public void ignoresNegativeValuesAndResets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        assertEquals(0, histogram.getCount());
+        histogram.record(500);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getPercentileNanos(1));
+    }
+}
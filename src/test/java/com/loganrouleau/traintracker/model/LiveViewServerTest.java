@@ -0,0 +1,18 @@
+package com.loganrouleau.traintracker.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LiveViewServerTest {
+    @Test
+    public void escapesHtmlMarkupAndQuotes() {
+        assertEquals("Tom &amp; Jerry&#39;s &lt;b&gt;&quot;East&quot;\\", LiveViewServer.escapeHtml(
+                "Tom & Jerry's <b>\"East\"\\"));
+    }
+
+    @Test
+    public void escapesJsonQuotesBackslashesAndControlCharacters() {
+        assertEquals("a\\\"b\\\\c\\u000a<&'", LiveViewServer.escapeJson("a\"b\\c\n<&'"));
+    }
+}
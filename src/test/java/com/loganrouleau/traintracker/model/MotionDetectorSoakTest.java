@@ -0,0 +1,210 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs a detector over many frames of a moving train and checks its native and heap memory stay flat once the buffers
+ * are sized. Opt in with {@code -Dsoak.frames=<frames>}, such as {@code mvn test -Dtest=MotionDetectorSoakTest
+ * -Dsoak.frames=200000}. Needs the OpenCV native library, and reads the resident set size from /proc on Linux.
+ */
+public class MotionDetectorSoakTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+    private static final int FRAME_COUNT = 32;
+    private static final long FRAME_PERIOD_MILLIS = 100;
+    private static final long MAX_RSS_GROWTH_BYTES = 32L << 20;
+    private static final long MAX_HEAP_GROWTH_BYTES = 16L << 20;
+
+    @Test
+    public void keepsMemoryFlatOverManyFrames() throws Exception {
+        int soakFrames = Integer.getInteger("soak.frames", 0);
+        assumeTrue("Soak test not requested", soakFrames > 0);
+        OpenCvAssumptions.assumeNativeLibrary();
+        configure();
+
+        Mat[] frames = generateFrames();
+        CaptureDevice device = CaptureDevice.forReplay(new LoopingFrameSource(frames));
+        MotionDetector detector = new MotionDetector();
+        detector.setLocation("SOAK");
+        detector.setCaptureDevice(device);
+        detector.setPersistFrames(false);
+        detector.setBoundingBox(WIDTH / 4, HEIGHT / 4, 3 * WIDTH / 4, 3 * HEIGHT / 4);
+        detector.setThreshold(20);
+        detector.setDetectionTolerance(20000);
+        detector.capture();
+        try {
+            // Size the buffers and let the JIT settle before taking the baseline
+            int warmupFrames = Math.max(1000, soakFrames / 10);
+            long frameSequence = run(detector, frames, 0, warmupFrames);
+            long baselineRss = residentSetBytes();
+            long baselineHeap = usedHeapBytes();
+
+            run(detector, frames, frameSequence, soakFrames);
+            long rssGrowth = residentSetBytes() - baselineRss;
+            long heapGrowth = usedHeapBytes() - baselineHeap;
+            assertTrue("Resident set grew by " + rssGrowth + " bytes over " + soakFrames + " frames",
+                    rssGrowth <= MAX_RSS_GROWTH_BYTES);
+            assertTrue("Heap grew by " + heapGrowth + " bytes over " + soakFrames + " frames",
+                    heapGrowth <= MAX_HEAP_GROWTH_BYTES);
+        } finally {
+            detector.stopAcquisition(false);
+            device.close();
+            for (Mat frame : frames) {
+                frame.release();
+            }
+        }
+    }
+
+    private static long run(MotionDetector detector, Mat[] frames, long frameSequence, int count) {
+        for (int i = 0; i < count; i++) {
+            frameSequence++;
+            long frameTimeMillis = frameSequence * FRAME_PERIOD_MILLIS;
+            detector.processFrame(frames[(int) (frameSequence % frames.length)], frameSequence,
+                    TimeUnit.MILLISECONDS.toNanos(frameTimeMillis), frameTimeMillis);
+        }
+        return frameSequence;
+    }
+
+    /**
+     * Detection alone, on the calling thread, with nothing written but results.
+     */
+    private static void configure() throws IOException {
+        Config.FRAMES_PER_SECOND = 10;
+        Config.TIMESTAMP_FORMAT = "yyyy-MM-dd HH-mm-ss-SSS";
+        Config.IMAGE_EXTENSION = "jpg";
+        Config.DISPLAY_WIDTH_PIXELS = 640;
+        Config.DISPLAY_HEIGHT_PIXELS = 360;
+        Config.PIPELINE_ENABLED = false;
+        Config.TELEMETRY_ENABLED = false;
+        Config.CLIP_RECORDING_ENABLED = false;
+        Config.EVENT_STORE_ENABLED = false;
+        Config.LIVE_VIEW_ENABLED = false;
+        Config.ADAPTIVE_SCHEDULING_ENABLED = false;
+        Config.DETECTION_ROI_FIRST = true;
+        Config.DETECTION_DOWNSCALE_FACTOR = 1;
+        Config.DETECTION_PYRAMID_LEVELS = 0;
+        Config.DETECTION_FUSED_KERNEL = false;
+        Config.DETECTION_PARALLEL = false;
+        Config.HEATMAP_ENABLED = false;
+        Config.METRES_PER_PIXEL = 0;
+        Config.RESULT_FLUSH_INTERVAL_MILLIS = 1000;
+        Config.RESULT_FLUSH_LINES = 256;
+        Config.RESULT_MAX_FILE_BYTES = 10485760;
+        Config.RESULT_OUTPUT_DIRECTORY = Files.createTempDirectory("soak-results").toString();
+    }
+
+    /**
+     * A bright block crossing a background of fresh gaussian noise, so every frame has both speckle and a moving edge.
+     */
+    private static Mat[] generateFrames() {
+        Core.setRNGSeed(42);
+        int trainWidth = WIDTH / 3;
+        Mat[] frames = new Mat[FRAME_COUNT];
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            Mat frame = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3);
+            Core.randn(frame, 64, 8);
+            int trainLeft = i * (WIDTH + trainWidth) / FRAME_COUNT - trainWidth;
+            Imgproc.rectangle(frame, new Point(trainLeft, HEIGHT / 3), new Point(trainLeft + trainWidth,
+                    2 * HEIGHT / 3), new Scalar(230, 230, 230), -1);
+            frames[i] = frame;
+        }
+        return frames;
+    }
+
+    private static long residentSetBytes() throws IOException {
+        Path status = Paths.get("/proc/self/status");
+        assumeTrue("No /proc to read the resident set size from", Files.isReadable(status));
+        for (String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+            if (line.startsWith("VmRSS:")) {
+                // Reported in kB
+                return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        }
+        throw new IOException("No VmRSS in " + status);
+    }
+
+    private static long usedHeapBytes() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Stands in for the camera, handing out the generated frames in a loop. Frames are passed to the detector
+     * directly, so the device never reads from it.
+     */
+    private static class LoopingFrameSource implements FrameSource {
+        private final Mat[] frames;
+        private boolean open = false;
+        private long framesRead = 0;
+
+        private LoopingFrameSource(Mat[] frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public boolean open() {
+            open = true;
+            return true;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public boolean read(Mat frame) {
+            frames[(int) (framesRead++ % frames.length)].copyTo(frame);
+            return true;
+        }
+
+        @Override
+        public long getFrameTimeMillis() {
+            return framesRead * FRAME_PERIOD_MILLIS;
+        }
+
+        @Override
+        public long getFrameTimeNanos() {
+            return TimeUnit.MILLISECONDS.toNanos(getFrameTimeMillis());
+        }
+
+        @Override
+        public boolean isLive() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public String toString() {
+            return "soak frames";
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.loganrouleau.traintracker.model;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MotionHeatmapTest {
+    private static final int ROWS = 48;
+    private static final int COLS = 64;
+
+    @Test
+    public void suggestsNothingWithoutHeat() {
+        assertNull(MotionHeatmap.suggestBoundingBox(new float[ROWS * COLS], ROWS, COLS, new Rect(0, 0, COLS, ROWS),
+                1, 0.05, 8));
+    }
+
+    @Test
+    public void coversTheHotBandWithAMargin() {
+        float[] heat = new float[ROWS * COLS];
+        fill(heat, 10, 20, 5, 41, 100);
+        Rect box = MotionHeatmap.suggestBoundingBox(heat, ROWS, COLS, new Rect(0, 0, COLS, ROWS), 1, 0.05, 2);
+        assertEquals(new Rect(3, 8, 40, 14), box);
+    }
+
+    @Test
+    public void ignoresHeatBelowTheCoverageFraction() {
+        float[] heat = new float[ROWS * COLS];
+        fill(heat, 10, 20, 5, 41, 100);
+        // Occasional unrelated motion elsewhere in the region
+        fill(heat, 40, 45, 50, 60, 4);
+        Rect box = MotionHeatmap.suggestBoundingBox(heat, ROWS, COLS, new Rect(0, 0, COLS, ROWS), 1, 0.05, 0);
+        assertEquals(new Rect(5, 10, 36, 10), box);
+    }
+
+    @Test
+    public void mapsToFullResolutionFrameCoordinates() {
+        float[] heat = new float[ROWS * COLS];
+        fill(heat, 10, 20, 5, 41, 100);
+        // A region at (100, 50) of the frame, detected at half resolution
+        Rect region = new Rect(100, 50, 2 * COLS, 2 * ROWS);
+        Rect box = MotionHeatmap.suggestBoundingBox(heat, ROWS, COLS, region, 0.5, 0.05, 4);
+        assertEquals(new Rect(106, 66, 80, 28), box);
+    }
+
+    @Test
+    public void keepsTheMarginWithinTheRegion() {
+        float[] heat = new float[ROWS * COLS];
+        fill(heat, 0, ROWS, 0, 3, 100);
+        Rect region = new Rect(10, 20, COLS, ROWS);
+        Rect box = MotionHeatmap.suggestBoundingBox(heat, ROWS, COLS, region, 1, 0.05, 8);
+        assertEquals(new Rect(10, 20, 11, ROWS), box);
+    }
+
+    private static void fill(float[] heat, int fromRow, int toRow, int fromCol, int toCol, float value) {
+        for (int row = fromRow; row < toRow; row++) {
+            for (int col = fromCol; col < toCol; col++) {
+                heat[row * COLS + col] = value;
+            }
+        }
+    }
+}
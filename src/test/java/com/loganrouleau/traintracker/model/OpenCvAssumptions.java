@@ -0,0 +1,49 @@
+package com.loganrouleau.traintracker.model;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+import static org.junit.Assume.assumeNoException;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Skips tests which need OpenCV when it is not available. A build without the native library compiles against a jar
+ * whose Mats hold no pixels, so only tests which never read pixels back can run there.
+ */
+final class OpenCvAssumptions {
+    private static Boolean nativeLibraryLoaded;
+
+    private OpenCvAssumptions() {
+    }
+
+    /**
+     * Skip the test unless Mats can at least be created, even if they hold no pixels.
+     */
+    static void assumeMats() {
+        loadNativeLibrary();
+        try {
+            new Mat().release();
+        } catch (UnsatisfiedLinkError e) {
+            assumeNoException("OpenCV Mats are not available", e);
+        }
+    }
+
+    /**
+     * Skip the test unless the OpenCV native library is loaded.
+     */
+    static void assumeNativeLibrary() {
+        assumeTrue("OpenCV native library not available", loadNativeLibrary());
+    }
+
+    private static synchronized boolean loadNativeLibrary() {
+        if (nativeLibraryLoaded == null) {
+            try {
+                System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+                nativeLibraryLoaded = true;
+            } catch (UnsatisfiedLinkError e) {
+                nativeLibraryLoaded = false;
+            }
+        }
+        return nativeLibraryLoaded;
+    }
+}
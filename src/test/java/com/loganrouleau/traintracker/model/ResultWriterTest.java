@@ -0,0 +1,119 @@
+package com.loganrouleau.traintracker.model;
+
+import com.loganrouleau.traintracker.Config;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The writer is a singleton whose thread reads the flush interval once when it starts, so the configuration is set
+ * before the class is first used. The interval is long enough that only an early flush can write within a test.
+ */
+public class ResultWriterTest {
+    private static final int FLUSH_LINES = 4;
+    private static final long WAIT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private static Path directory;
+    private static ResultWriter writer;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        directory = Files.createTempDirectory("result-writer-test");
+        Config.RESULT_OUTPUT_DIRECTORY = directory.toString();
+        Config.RESULT_FLUSH_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+        Config.RESULT_FLUSH_LINES = FLUSH_LINES;
+        Config.RESULT_MAX_FILE_BYTES = Long.MAX_VALUE;
+        Config.TIMESTAMP_FORMAT = "yyyy-MM-dd HH-mm-ss-SSS";
+        Config.METRES_PER_PIXEL = 0;
+        writer = ResultWriter.getInstance();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        writer.close();
+    }
+
+    @Test
+    public void flushesEarlyAgainAfterTheFirstCommit() throws Exception {
+        int written = countResultLines();
+        for (int batch = 1; batch <= 2; batch++) {
+            for (int i = 0; i < FLUSH_LINES; i++) {
+                writer.writeResultLine("2018-05-01 12-00-0" + batch + "-00" + i, "Station", 20, 20000, "East",
+                        Double.NaN, Double.NaN, 1500);
+            }
+            awaitCommit(written + batch * FLUSH_LINES);
+        }
+    }
+
+    @Test
+    public void holdsLinesUntilAFlushWorthIsPending() throws Exception {
+        int written = countResultLines();
+        for (int i = 0; i < FLUSH_LINES - 1; i++) {
+            writer.writeResultLine("2018-05-01 13-00-00-00" + i, "Held", 20.4, 19999.6, "West", 12.34, 250, 2050);
+        }
+        Thread.sleep(200);
+        assertEquals(written, countResultLines());
+        assertEquals(FLUSH_LINES - 1, writer.getPendingCount());
+
+        writer.writeResultLine("2018-05-01 13-00-00-009", "Held", 20, 20000, "", Double.NaN, Double.NaN, 0);
+        awaitCommit(written + FLUSH_LINES);
+        List<String> held = readResultLines().stream().filter(line -> line.contains(",Held,"))
+                .collect(Collectors.toList());
+        assertEquals(FLUSH_LINES, held.size());
+        assertEquals("2018-05-01 13-00-00-000,Held,20,20000,West,12.3,250.0,2.0", held.get(0));
+        assertEquals("2018-05-01 13-00-00-009,Held,20,20000,,,,0.0", held.get(FLUSH_LINES - 1));
+    }
+
+    /**
+     * Wait for the writer to commit the expected total of lines, which it writes before taking them off the pending
+     * count.
+     */
+    private static void awaitCommit(int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        int lines = 0;
+        while (System.currentTimeMillis() < deadline) {
+            lines = countResultLines();
+            if (lines >= expected && writer.getPendingCount() == 0) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        assertEquals("Result lines written before the flush interval", expected, lines);
+        assertEquals(0, writer.getPendingCount());
+    }
+
+    private static int countResultLines() throws IOException {
+        return readResultLines().size();
+    }
+
+    private static List<String> readResultLines() throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(directory)) {
+            files = paths.filter(path -> !path.getFileName().toString().contains("-trains"))
+                    .collect(Collectors.toList());
+        }
+        List<String> lines = new ArrayList<>();
+        for (Path file : files) {
+            List<String> content = Files.readAllLines(file, StandardCharsets.UTF_8);
+            // The file is created before its first commit is written
+            if (!content.isEmpty()) {
+                assertTrue(content.get(0).startsWith("Timestamp,"));
+                lines.addAll(content.subList(1, content.size()));
+            }
+        }
+        return lines;
+    }
+}